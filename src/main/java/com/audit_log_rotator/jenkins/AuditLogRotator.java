@@ -3,6 +3,7 @@ package com.audit_log_rotator.jenkins;
 import hudson.scheduler.CronTabList;
 import hudson.util.LogTaskListener;
 import jenkins.model.Jenkins;
+import jenkins.util.SystemProperties;
 
 
 import java.io.File;
@@ -23,6 +24,7 @@ import java.util.Date;
 import java.time.Duration;
 
 // AWS SDK
+import com.amazonaws.client.builder.AwsClientBuilder;
 import com.amazonaws.services.s3.AmazonS3;
 import com.amazonaws.services.s3.AmazonS3ClientBuilder;
 
@@ -53,6 +55,10 @@ public class AuditLogRotator {
         }, 0, 1, TimeUnit.MINUTES);
     }
 
+    public static void rotateNow() throws IOException {
+        rotateLog(ZoneId.systemDefault());
+    }
+
     private static void rotateLog(ZoneId zoneId) throws IOException {
         AuditLogRotatorConfig config = AuditLogRotatorConfig.get();
         File logFile = new File(config.getLRLogFilePath());
@@ -81,9 +87,17 @@ public class AuditLogRotator {
     private static void uploadToS3(File file, AuditLogRotatorConfig config) {
         try {
             // LOGGER.info("connecting to aws");
-            AmazonS3 s3 = AmazonS3ClientBuilder.standard()
-                .withRegion(config.getLRS3Region())
-                .build();
+            AmazonS3ClientBuilder builder = AmazonS3ClientBuilder.standard();
+            String endpoint = SystemProperties.getString(AuditLogRotator.class.getName() + ".s3Endpoint");
+            if (endpoint != null && !endpoint.isEmpty()) {
+                // S3 compatible storage such as MinIO
+                builder.withEndpointConfiguration(new AwsClientBuilder.EndpointConfiguration(endpoint, config.getLRS3Region()))
+                    .withPathStyleAccessEnabled(true)
+                    .disableChunkedEncoding();
+            } else {
+                builder.withRegion(config.getLRS3Region());
+            }
+            AmazonS3 s3 = builder.build();
             // LOGGER.info("Connected to aws");
             s3.putObject(config.getLRS3Bucket(), config.getLRS3BucketPath() + "/" + file.getName(), file);
             LOGGER.info("Uploaded rotated log " + file.getName() + " to S3 bucket " + config.getLRS3Bucket() + "/" + config.getLRS3BucketPath());
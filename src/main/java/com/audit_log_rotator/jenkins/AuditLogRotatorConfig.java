@@ -10,6 +10,7 @@ import org.kohsuke.stapler.QueryParameter;
 import org.kohsuke.stapler.StaplerRequest;
 
 import java.io.File;
+import java.util.Objects;
 import java.time.ZoneId;
 import java.util.logging.Logger;
 import hudson.scheduler.CronTabList;
@@ -23,8 +24,7 @@ public class AuditLogRotatorConfig extends GlobalConfiguration {
     private String LRS3BucketPath = "jenkins-audit-logs";
     private String LRS3Region = "ap-south-1";
     private boolean logRotationEnabled = true;
-    private static final String JENKINS_HOME = Jenkins.get().getRootDir().getAbsolutePath();
-    private String LRLogFilePath = JENKINS_HOME + "/logs/audit-1.log";
+    private String LRLogFilePath = Jenkins.get().getRootDir().getAbsolutePath() + "/logs/audit-1.log";
     public AuditLogRotatorConfig() {
         load();
     }
@@ -87,7 +87,7 @@ public class AuditLogRotatorConfig extends GlobalConfiguration {
     }
 
     public void setLRS3Bucket(String LRS3Bucket) {
-        if(!this.LRS3Bucket.equals(LRS3Bucket))
+        if(!Objects.equals(this.LRS3Bucket, LRS3Bucket))
             LOGGER.info("Setting audit log rotator's S3 bucket to: " + LRS3Bucket + " by user: " + getUserName());
         this.LRS3Bucket = LRS3Bucket;
     }
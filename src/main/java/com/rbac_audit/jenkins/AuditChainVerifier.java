@@ -0,0 +1,278 @@
+package com.rbac_audit.jenkins;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.regex.Pattern;
+
+/**
+ * Verifies a role change log and its rotated archives. Each archive is hashed independently
+ * on its own thread, then the checkpoints are stitched together in rotation order starting
+ * from the first archive recorded in the chain state, and the live log is checked against the
+ * signed running digest persisted after its last batch.
+ */
+public class AuditChainVerifier {
+    private static final int TAIL_BYTES = 1024;
+
+    public static class Report {
+        private final List<String> lines = new ArrayList<>();
+        private boolean ok = true;
+
+        void info(String line) {
+            lines.add(line);
+        }
+
+        void error(String line) {
+            ok = false;
+            lines.add("ERROR: " + line);
+        }
+
+        public List<String> getLines() {
+            return lines;
+        }
+
+        public boolean isOk() {
+            return ok;
+        }
+    }
+
+    static class Segment {
+        File file;
+        boolean sealed;
+        String prev;
+        String digest;
+        // The checkpoint is well formed and its signature matches, so its digest can anchor the next segment
+        boolean trusted;
+        // Event lines before the checkpoint
+        long events;
+        String error;
+    }
+
+    public static Report verify(File logFile) throws IOException, InterruptedException {
+        Report report = new Report();
+        try (AuditHashChain.LiveSnapshot live = AuditHashChain.openLive(logFile, false)) {
+            String lastDigest = verifyArchives(report, live.archives, live.state);
+            verifyLive(report, logFile, live, lastDigest);
+        }
+        return report;
+    }
+
+    // Returns the digest of the newest trusted checkpoint, or null when the newest archive cannot anchor the live log
+    private static String verifyArchives(Report report, List<File> archives, AuditHashChain.ChainState state) throws IOException, InterruptedException {
+        if (archives.isEmpty()) {
+            report.info("No rotated archives found");
+        }
+
+        List<Segment> segments = new ArrayList<>();
+        int threads = Math.max(1, Math.min(archives.size(), Runtime.getRuntime().availableProcessors()));
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        try {
+            List<Callable<Segment>> tasks = new ArrayList<>();
+            for (File archive : archives) {
+                tasks.add(() -> verifySegment(archive));
+            }
+            for (Future<Segment> future : pool.invokeAll(tasks)) {
+                segments.add(future.get());
+            }
+        } catch (ExecutionException e) {
+            throw new IOException("Segment verification failed", e.getCause());
+        } finally {
+            pool.shutdownNow();
+        }
+
+        // The chain starts at the recorded first archive, which must link to the genesis digest. From there on
+        // every segment must be sealed and link to a trusted predecessor; older unsealed archives predate the chain.
+        String firstArchive = (state != null && state.signed) ? state.firstArchive : null;
+        boolean chained = false;
+        boolean firstSeen = false;
+        long events = 0;
+        String expectedPrev = AuditHashChain.GENESIS;
+        for (Segment segment : segments) {
+            String name = segment.file.getName();
+            firstSeen |= name.equals(firstArchive);
+            if (!segment.sealed) {
+                if (chained) {
+                    report.error(name + ": checkpoint missing after a sealed segment");
+                    expectedPrev = null;
+                } else if (firstArchive != null && name.compareTo(firstArchive) >= 0) {
+                    report.error(name + ": checkpoint missing, the hash chain started at " + firstArchive);
+                    chained = true;
+                    expectedPrev = null;
+                } else {
+                    report.info(name + ": no checkpoint, archive predates the hash chain");
+                }
+                continue;
+            }
+
+            boolean ok = true;
+            if (!chained && segment.prev != null && !AuditHashChain.GENESIS.equals(segment.prev)) {
+                report.error(name + ": oldest sealed archive links to " + segment.prev + " instead of the start of the hash chain, older archives are missing");
+                ok = false;
+            } else if (chained && expectedPrev == null) {
+                report.error(name + ": cannot be linked, the previous segment has no trusted checkpoint");
+                ok = false;
+            } else if (chained && segment.prev != null && !expectedPrev.equals(segment.prev)) {
+                report.error(name + ": links to " + segment.prev + " but previous segment ended at " + expectedPrev + ", a segment is missing or out of order");
+                ok = false;
+            }
+            if (segment.error != null) {
+                report.error(name + ": " + segment.error);
+                ok = false;
+            }
+            if (ok) {
+                report.info(name + ": OK " + segment.digest);
+            }
+            chained = true;
+            events += segment.events;
+            expectedPrev = segment.trusted ? segment.digest : null;
+        }
+
+        if (firstArchive != null) {
+            if (!firstSeen) {
+                report.error(firstArchive + ": first archive of the hash chain is missing");
+            }
+            // Every event numbered since the chain started is in an archive, the live log or a recorded gap
+            long sealed = state.sealedLines - state.firstArchiveLines - state.gapLinesAfter(state.firstArchiveLines);
+            if (events != sealed) {
+                report.error("Rotated archives hold " + events + " event(s) since the hash chain started but " + sealed + " were sealed, events were removed or added");
+            }
+        }
+        return chained ? expectedPrev : AuditHashChain.GENESIS;
+    }
+
+    private static void verifyLive(Report report, File logFile, AuditHashChain.LiveSnapshot live, String lastDigest) throws IOException {
+        String name = logFile.getName();
+        AuditHashChain.ChainState state = live.state;
+        if (state == null) {
+            if (!AuditHashChain.GENESIS.equals(lastDigest)) {
+                report.error(name + ": hash chain state " + AuditHashChain.stateFile(logFile).getName() + " is missing");
+            } else {
+                report.info(name + ": no hash chain state, nothing has been written to the chain yet");
+            }
+            return;
+        }
+
+        if (!state.signed) {
+            report.error(name + ": signature of hash chain state " + AuditHashChain.stateFile(logFile).getName() + " does not match, the state was modified");
+            return;
+        }
+        if (state.tampered != null) {
+            for (String tampered : state.tampered.split(",")) {
+                report.error(tampered + ": live log failed verification on startup and was set aside");
+            }
+        }
+        if (lastDigest == null) {
+            report.error(name + ": cannot be linked, the newest archive has no trusted checkpoint");
+        } else if (!lastDigest.equals(state.checkpoint)) {
+            report.error(name + ": continues from checkpoint " + state.checkpoint + " which is not the newest checkpoint in the archive set, an archive is missing or out of order");
+        }
+
+        // A batch recorded as pending was being written when Jenkins stopped; the next write commits or trims it
+        boolean interrupted = state.pendingDigest != null && live.length > state.liveBytes && live.length <= state.pendingBytes;
+        if (live.length != state.liveBytes && !interrupted) {
+            report.error(name + ": " + live.length + " bytes on disk but " + state.liveBytes + " bytes were written through the chain");
+            return;
+        }
+        MessageDigest md = AuditHashChain.newDigest(state.checkpoint);
+        if (live.in != null) {
+            AuditHashChain.hash(live.in, md, state.liveBytes);
+        }
+        String actual = AuditHashChain.peek(md);
+        if (!actual.equals(state.liveDigest)) {
+            report.error(name + ": content digest " + actual + " does not match running digest " + state.liveDigest + ", live log was modified");
+            return;
+        }
+        if (!interrupted) {
+            report.info(name + ": OK " + state.liveLines + " line(s) since checkpoint " + state.checkpoint);
+            return;
+        }
+        AuditHashChain.hash(live.in, md, live.length - state.liveBytes);
+        if (live.length < state.pendingBytes) {
+            report.info(name + ": OK " + state.liveLines + " line(s) since checkpoint " + state.checkpoint + ", followed by a partial batch that is trimmed on the next write");
+        } else if (AuditHashChain.peek(md).equals(state.pendingDigest)) {
+            report.info(name + ": OK " + state.pendingLines + " line(s) since checkpoint " + state.checkpoint + ", the last batch is committed on the next write");
+        } else {
+            report.error(name + ": last batch does not match its pending digest " + state.pendingDigest + ", live log was modified");
+        }
+    }
+
+    static List<File> listArchives(File logFile) {
+        String originalName = logFile.getName();
+        int dotIndex = originalName.lastIndexOf('.');
+        String baseName = (dotIndex == -1) ? originalName : originalName.substring(0, dotIndex);
+        String extension = (dotIndex == -1) ? "" : originalName.substring(dotIndex);
+        Pattern archiveName = Pattern.compile(Pattern.quote(baseName + "-") + "\\d{8}_\\d{6}" + Pattern.quote(extension));
+
+        File dir = logFile.getAbsoluteFile().getParentFile();
+        File[] files = dir.listFiles((d, name) -> archiveName.matcher(name).matches());
+        if (files == null) return new ArrayList<>();
+        // Rotation timestamps are yyyyMMdd_HHmmss, so name order is rotation order
+        Arrays.sort(files, (a, b) -> a.getName().compareTo(b.getName()));
+        return new ArrayList<>(Arrays.asList(files));
+    }
+
+    static Segment verifySegment(File file) throws IOException {
+        Segment segment = new Segment();
+        segment.file = file;
+
+        long length;
+        long checkpointOffset;
+        String checkpoint;
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+            length = raf.length();
+            int tailLength = (int) Math.min(length, TAIL_BYTES);
+            byte[] tail = new byte[tailLength];
+            raf.seek(length - tailLength);
+            raf.readFully(tail);
+
+            int end = tailLength;
+            if (end > 0 && tail[end - 1] == '\n') end--;
+            int start = end;
+            while (start > 0 && tail[start - 1] != '\n') start--;
+            checkpoint = new String(tail, start, end - start, StandardCharsets.UTF_8);
+            checkpointOffset = length - tailLength + start;
+        }
+        if (!checkpoint.startsWith(AuditHashChain.CHECKPOINT_PREFIX)) {
+            return segment;
+        }
+        segment.sealed = true;
+
+        String mac = null;
+        for (String field : checkpoint.substring(AuditHashChain.CHECKPOINT_PREFIX.length()).split(" ")) {
+            if (field.startsWith("prev=")) segment.prev = field.substring(5);
+            else if (field.startsWith("digest=")) segment.digest = field.substring(7);
+            else if (field.startsWith("mac=")) mac = field.substring(4);
+        }
+        if (segment.prev == null || segment.digest == null || mac == null) {
+            segment.error = "malformed checkpoint";
+            return segment;
+        }
+        if (!AuditHashChain.CHECKPOINT_KEY.checkMac(segment.prev + ":" + segment.digest, mac)) {
+            segment.error = "checkpoint signature does not match";
+            return segment;
+        }
+        segment.trusted = true;
+
+        MessageDigest md = AuditHashChain.newDigest(segment.prev);
+        try (InputStream in = Files.newInputStream(file.toPath())) {
+            segment.events = AuditHashChain.hash(in, md, checkpointOffset)[1];
+        }
+        String actual = AuditHashChain.toHex(md.digest());
+        if (!actual.equals(segment.digest)) {
+            segment.error = "content digest " + actual + " does not match checkpoint " + segment.digest + ", segment was modified";
+        }
+        return segment;
+    }
+}
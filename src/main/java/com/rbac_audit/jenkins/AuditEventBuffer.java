@@ -0,0 +1,72 @@
+package com.rbac_audit.jenkins;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Fixed size ring of the most recent audit events shared by all stream subscribers.
+ * The writer only overwrites slots and never waits for readers, so a slow subscriber
+ * can fall behind the ring but cannot hold up the audit log or the Jenkins save path.
+ */
+public class AuditEventBuffer {
+    static final int CAPACITY = 4096;
+    static final int MAX_BATCH = 256;
+
+    private static final String[] LINES = new String[CAPACITY];
+    private static long firstSeq = 0;
+    private static long lastSeq = 0;
+
+    static class Batch {
+        final List<String> lines = new ArrayList<>();
+        long firstSeq;
+        long skipped;
+    }
+
+    static synchronized void publish(long seq, String line) {
+        if (firstSeq == 0 || seq <= lastSeq) {
+            // First event since startup, or numbering restarted after a log path change
+            firstSeq = seq;
+        }
+        LINES[(int) (seq % CAPACITY)] = line;
+        lastSeq = seq;
+        AuditEventBuffer.class.notifyAll();
+    }
+
+    static synchronized long getLastSeq() {
+        return lastSeq;
+    }
+
+    static synchronized long getOldestSeq() {
+        return (lastSeq == 0) ? 0 : Math.max(firstSeq, lastSeq - CAPACITY + 1);
+    }
+
+    // A reader ahead of the newest event still uses the numbering of a log that has since been
+    // replaced, so it continues from the first event of the new numbering
+    private static long renumbered(long after) {
+        return (firstSeq != 0 && after > lastSeq) ? firstSeq - 1 : after;
+    }
+
+    // Waits up to timeoutMillis for events after the given sequence number.
+    static synchronized Batch read(long after, long timeoutMillis) throws InterruptedException {
+        after = renumbered(after);
+        if (lastSeq <= after) {
+            AuditEventBuffer.class.wait(timeoutMillis);
+            after = renumbered(after);
+        }
+        Batch batch = new Batch();
+        if (lastSeq <= after) return batch;
+
+        long oldest = getOldestSeq();
+        long from = after + 1;
+        if (from < oldest) {
+            batch.skipped = oldest - from;
+            from = oldest;
+        }
+        batch.firstSeq = from;
+        long to = Math.min(lastSeq, from + MAX_BATCH - 1);
+        for (long seq = from; seq <= to; seq++) {
+            batch.lines.add(LINES[(int) (seq % CAPACITY)]);
+        }
+        return batch;
+    }
+}
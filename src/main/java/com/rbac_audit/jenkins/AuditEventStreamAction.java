@@ -0,0 +1,318 @@
+package com.rbac_audit.jenkins;
+
+import hudson.Extension;
+import hudson.model.RootAction;
+import jenkins.model.Jenkins;
+import jenkins.util.SystemProperties;
+import org.kohsuke.stapler.StaplerRequest;
+import org.kohsuke.stapler.StaplerResponse;
+import org.kohsuke.stapler.verb.GET;
+
+import javax.servlet.AsyncContext;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.WriteListener;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Logger;
+
+/**
+ * Server-sent events stream of role change audit events at /role-audit-events/.
+ * Clients resume with the Last-Event-ID header or the since query parameter; events
+ * that have already left the ring buffer are replayed from the rotated archives and the
+ * live log on disk. Output is non-blocking with a deadline per write, so a client that
+ * stops reading is dropped and frees its subscriber slot.
+ */
+@Extension
+public class AuditEventStreamAction implements RootAction {
+    private static final Logger LOGGER = Logger.getLogger(AuditEventStreamAction.class.getName());
+    static final int MAX_SUBSCRIBERS = 8;
+    static long HEARTBEAT_MILLIS = SystemProperties.getLong(AuditEventStreamAction.class.getName() + ".heartbeatMillis", 15000L);
+    static long WRITE_TIMEOUT_MILLIS = SystemProperties.getLong(AuditEventStreamAction.class.getName() + ".writeTimeoutMillis", 10000L);
+    private static final AtomicInteger subscribers = new AtomicInteger();
+
+    @Override
+    public String getIconFileName() {
+        return null;
+    }
+
+    @Override
+    public String getDisplayName() {
+        return null;
+    }
+
+    @Override
+    public String getUrlName() {
+        return "role-audit-events";
+    }
+
+    @GET
+    public void doIndex(StaplerRequest req, StaplerResponse rsp) throws IOException, InterruptedException {
+        Jenkins.get().checkPermission(Jenkins.ADMINISTER);
+        if (subscribers.incrementAndGet() > MAX_SUBSCRIBERS) {
+            subscribers.decrementAndGet();
+            rsp.sendError(503, "Too many audit event subscribers");
+            return;
+        }
+        AsyncContext async = req.startAsync();
+        async.setTimeout(0);
+        try {
+            rsp.setContentType("text/event-stream;charset=UTF-8");
+            rsp.setHeader("Cache-Control", "no-cache");
+            rsp.setHeader("X-Accel-Buffering", "no");
+            ServletOutputStream os = rsp.getOutputStream();
+            DeadlineOutputStream deadline = new DeadlineOutputStream(os, WRITE_TIMEOUT_MILLIS);
+            os.setWriteListener(deadline);
+            PrintWriter out = new PrintWriter(new OutputStreamWriter(deadline, StandardCharsets.UTF_8));
+
+            File logFile = new File(RoleAuditConfig.get().getLogFilePath());
+            // Without a resume position the stream starts at the newest event written so far
+            long newest;
+            try (AuditHashChain.LiveSnapshot live = AuditHashChain.openLive(logFile, true)) {
+                newest = live.state.sealedLines + live.state.liveLines;
+            }
+            long after = parseSeq(req.getHeader("Last-Event-ID"), parseSeq(req.getParameter("since"), newest));
+            after = catchUpFromDisk(out, logFile, after);
+            // Commits the response, so the client sees the subscription before the first event
+            out.flush();
+            stream(out, after);
+            if (deadline.stalled) {
+                LOGGER.info("Dropped audit event subscriber that did not read for " + WRITE_TIMEOUT_MILLIS + " ms");
+            }
+        } finally {
+            subscribers.decrementAndGet();
+            async.complete();
+        }
+    }
+
+    private void stream(PrintWriter out, long after) throws InterruptedException {
+        while (!out.checkError()) {
+            AuditEventBuffer.Batch batch = AuditEventBuffer.read(after, HEARTBEAT_MILLIS);
+            if (batch.skipped > 0) {
+                // The subscriber fell behind the ring; tell it so and let it reconnect to replay from disk
+                out.write("event: lagging\ndata: " + batch.skipped + " event(s) after " + after + " were dropped\n\n");
+                out.flush();
+                LOGGER.info("Dropping lagging audit event subscriber at sequence " + after);
+                return;
+            }
+            if (batch.lines.isEmpty()) {
+                out.write(": keepalive\n\n");
+            }
+            long seq = batch.firstSeq;
+            for (String line : batch.lines) {
+                writeEvent(out, seq, line);
+                after = seq++;
+            }
+            out.flush();
+        }
+    }
+
+    private long catchUpFromDisk(PrintWriter out, File logFile, long after) {
+        long oldest = AuditEventBuffer.getOldestSeq();
+        if (oldest != 0 && after >= oldest - 1) return after;
+
+        try {
+            after = replay(out, logFile, after);
+        } catch (IOException e) {
+            out.write("event: gap\ndata: could not replay from log: " + e.getMessage() + "\n\n");
+        }
+        return after;
+    }
+
+    // Replays events after the given sequence number from the rotated archives and the live log.
+    // The snapshot is taken under the chain lock, so a rotation cannot shift the numbering mid-replay.
+    static long replay(PrintWriter out, File logFile, long after) throws IOException {
+        try (AuditHashChain.LiveSnapshot live = AuditHashChain.openLive(logFile, true)) {
+            long sealedLines = live.state.sealedLines;
+            long liveLines = live.state.liveLines;
+            if (after >= sealedLines + liveLines) return after;
+            if (after < sealedLines) {
+                after = replayArchives(out, live.archives, live.state, after);
+            }
+            if (live.in == null) return after;
+
+            BufferedReader reader = new BufferedReader(new InputStreamReader(live.in, StandardCharsets.UTF_8));
+            long seq = sealedLines;
+            String line;
+            while (seq < sealedLines + liveLines && (line = reader.readLine()) != null) {
+                seq++;
+                if (seq > after) {
+                    writeEvent(out, seq, line);
+                }
+            }
+            return Math.max(after, seq);
+        }
+    }
+
+    // Archives and recorded gaps are numbered backwards from the live segment, so only the newest archives needed are read
+    private static long replayArchives(PrintWriter out, List<File> archives, AuditHashChain.ChainState state, long after) throws IOException {
+        Deque<Span> needed = new ArrayDeque<>();
+        long end = state.sealedLines;
+        int next = archives.size() - 1;
+        while (end > after) {
+            long[] gap = gapEndingAt(state, end);
+            if (gap != null) {
+                needed.push(new Span(null, gap[0], gap[1]));
+                end = gap[0] - 1;
+                continue;
+            }
+            if (next < 0) break;
+            long events = countEvents(archives.get(next));
+            if (events < 0) break;
+            needed.push(new Span(archives.get(next--), end - events + 1, end));
+            end -= events;
+        }
+        if (end > after) {
+            out.write("event: gap\ndata: events " + (after + 1) + " to " + end + " are no longer in the rotated archives\n\n");
+        }
+
+        for (Span span : needed) {
+            if (span.archive == null) {
+                if (span.last > after) {
+                    out.write("event: gap\ndata: events " + Math.max(after + 1, span.first) + " to " + span.last + " were in a live log that failed verification\n\n");
+                }
+                continue;
+            }
+            long seq = span.first - 1;
+            try (BufferedReader reader = Files.newBufferedReader(span.archive.toPath(), StandardCharsets.UTF_8)) {
+                String line = reader.readLine();
+                while (line != null) {
+                    String following = reader.readLine();
+                    if (following == null && line.startsWith(AuditHashChain.CHECKPOINT_PREFIX)) break;
+                    seq++;
+                    if (seq > after) {
+                        writeEvent(out, seq, line);
+                    }
+                    line = following;
+                }
+            }
+        }
+        return Math.max(after, state.sealedLines);
+    }
+
+    private static long[] gapEndingAt(AuditHashChain.ChainState state, long seq) {
+        for (long[] gap : state.gaps) {
+            if (gap[1] == seq) return gap;
+        }
+        return null;
+    }
+
+    // Events first to last, read from an archive or, without one, only known to be missing
+    private static class Span {
+        final File archive;
+        final long first;
+        final long last;
+
+        Span(File archive, long first, long last) {
+            this.archive = archive;
+            this.first = first;
+            this.last = last;
+        }
+    }
+
+    // Number of event lines in a sealed archive, or -1 if the archive has no checkpoint
+    private static long countEvents(File archive) throws IOException {
+        long lines = 0;
+        String last = null;
+        try (BufferedReader reader = Files.newBufferedReader(archive.toPath(), StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                lines++;
+                last = line;
+            }
+        }
+        return (last != null && last.startsWith(AuditHashChain.CHECKPOINT_PREFIX)) ? lines - 1 : -1;
+    }
+
+    static void writeEvent(PrintWriter out, long seq, String line) {
+        StringBuilder event = new StringBuilder("id: ").append(seq).append('\n');
+        // A line break inside data would end the event early, so each line gets its own data field
+        for (String data : line.split("\r\n|\r|\n", -1)) {
+            event.append("data: ").append(data).append('\n');
+        }
+        out.write(event.append('\n').toString());
+    }
+
+    // Writes only once the container can take more output, and fails a write that waits longer than the
+    // deadline, so a client that stops reading cannot hold a request thread and a subscriber slot
+    static class DeadlineOutputStream extends OutputStream implements WriteListener {
+        private final ServletOutputStream out;
+        private final long timeoutMillis;
+        private Throwable error;
+        volatile boolean stalled;
+
+        DeadlineOutputStream(ServletOutputStream out, long timeoutMillis) {
+            this.out = out;
+            this.timeoutMillis = timeoutMillis;
+        }
+
+        @Override
+        public synchronized void onWritePossible() {
+            notifyAll();
+        }
+
+        @Override
+        public synchronized void onError(Throwable t) {
+            error = t;
+            notifyAll();
+        }
+
+        private void awaitReady() throws IOException {
+            long deadline = System.currentTimeMillis() + timeoutMillis;
+            while (error == null && !out.isReady()) {
+                long remaining = deadline - System.currentTimeMillis();
+                if (remaining <= 0) {
+                    stalled = true;
+                    throw new IOException("Subscriber did not read for " + timeoutMillis + " ms");
+                }
+                try {
+                    wait(remaining);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("Interrupted while waiting for the subscriber");
+                }
+            }
+            if (error != null) {
+                throw new IOException("Subscriber connection failed", error);
+            }
+        }
+
+        @Override
+        public synchronized void write(int b) throws IOException {
+            awaitReady();
+            out.write(b);
+        }
+
+        @Override
+        public synchronized void write(byte[] b, int off, int len) throws IOException {
+            awaitReady();
+            out.write(b, off, len);
+        }
+
+        @Override
+        public synchronized void flush() throws IOException {
+            awaitReady();
+            out.flush();
+        }
+    }
+
+    private static long parseSeq(String value, long defaultValue) {
+        if (value == null || value.trim().isEmpty()) return defaultValue;
+        try {
+            return Long.parseLong(value.trim());
+        } catch (NumberFormatException e) {
+            return defaultValue;
+        }
+    }
+}
@@ -0,0 +1,390 @@
+package com.rbac_audit.jenkins;
+
+import hudson.util.AtomicFileWriter;
+import jenkins.security.HMACConfidentialKey;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.logging.Logger;
+
+/**
+ * Running SHA-256 chain over the role change log. Every batch written by the listener
+ * extends the digest of the live segment, and every rotated archive is sealed with an
+ * HMAC-signed checkpoint line that links back to the checkpoint of the previous segment.
+ * The digest and length of the live segment are persisted after each batch in a state file
+ * signed with the checkpoint key, so edits made to the live log while Jenkins is down are
+ * detected instead of being signed on rotation. The state file also records the pending batch
+ * before it is written, so a batch cut short by a crash is recovered rather than reported.
+ */
+public class AuditHashChain {
+    private static final Logger LOGGER = Logger.getLogger(AuditHashChain.class.getName());
+    static final String CHECKPOINT_PREFIX = "#CHAIN-CHECKPOINT ";
+    static final String GENESIS = "0000000000000000000000000000000000000000000000000000000000000000";
+    static final HMACConfidentialKey CHECKPOINT_KEY = new HMACConfidentialKey(AuditHashChain.class, "checkpoint");
+
+    private static File currentLog;
+    private static ChainState state;
+    private static MessageDigest running;
+
+    // Contents of the .chain state file next to the log
+    static class ChainState {
+        String checkpoint = GENESIS;
+        // Lines sealed into archives and lines in the live segment; together they number audit events
+        long sealedLines;
+        long liveLines;
+        long liveBytes;
+        String liveDigest;
+        // Batch being appended to the live log; cleared once the append completed
+        long pendingLines;
+        long pendingBytes;
+        String pendingDigest;
+        // First archive sealed by the chain and the number of events that came before it
+        String firstArchive;
+        long firstArchiveLines;
+        // Event ranges that are in no archive because the live log holding them failed verification
+        final List<long[]> gaps = new ArrayList<>();
+        // Live logs that failed verification and were moved aside, comma separated
+        String tampered;
+        // Whether the state file carried a valid signature when it was read
+        boolean signed = true;
+
+        static ChainState read(File logFile) throws IOException {
+            File file = stateFile(logFile);
+            if (!file.exists()) return null;
+            String text = new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8);
+            int macIndex = text.lastIndexOf("\nmac=") + 1;
+            String body = (macIndex > 0) ? text.substring(0, macIndex) : text;
+
+            ChainState state = new ChainState();
+            state.signed = macIndex > 0 && CHECKPOINT_KEY.checkMac(body, text.substring(macIndex + 4).trim());
+            for (String line : body.split("\n")) {
+                int eq = line.indexOf('=');
+                if (eq == -1) continue;
+                String key = line.substring(0, eq);
+                String value = line.substring(eq + 1).trim();
+                try {
+                    switch (key) {
+                        case "checkpoint": state.checkpoint = value; break;
+                        case "sealedLines": state.sealedLines = Long.parseLong(value); break;
+                        case "liveLines": state.liveLines = Long.parseLong(value); break;
+                        case "liveBytes": state.liveBytes = Long.parseLong(value); break;
+                        case "liveDigest": state.liveDigest = value; break;
+                        case "pendingLines": state.pendingLines = Long.parseLong(value); break;
+                        case "pendingBytes": state.pendingBytes = Long.parseLong(value); break;
+                        case "pendingDigest": state.pendingDigest = value; break;
+                        case "firstArchive": state.firstArchive = value; break;
+                        case "firstArchiveLines": state.firstArchiveLines = Long.parseLong(value); break;
+                        case "gaps":
+                            for (String range : value.split(",")) {
+                                int dash = range.indexOf('-');
+                                state.gaps.add(new long[] {Long.parseLong(range.substring(0, dash)), Long.parseLong(range.substring(dash + 1))});
+                            }
+                            break;
+                        case "tampered": state.tampered = value; break;
+                        default: break;
+                    }
+                } catch (NumberFormatException | StringIndexOutOfBoundsException e) {
+                    // A corrupt value cannot come from a signed state, so treat it like a bad signature
+                    state.signed = false;
+                }
+            }
+            return state;
+        }
+
+        // Written to a temporary file and moved into place, so a crash never leaves a partial state behind
+        void write(File logFile) throws IOException {
+            StringBuilder sb = new StringBuilder();
+            sb.append("checkpoint=").append(checkpoint).append('\n');
+            sb.append("sealedLines=").append(sealedLines).append('\n');
+            sb.append("liveLines=").append(liveLines).append('\n');
+            sb.append("liveBytes=").append(liveBytes).append('\n');
+            sb.append("liveDigest=").append(liveDigest).append('\n');
+            if (pendingDigest != null) {
+                sb.append("pendingLines=").append(pendingLines).append('\n');
+                sb.append("pendingBytes=").append(pendingBytes).append('\n');
+                sb.append("pendingDigest=").append(pendingDigest).append('\n');
+            }
+            if (firstArchive != null) {
+                sb.append("firstArchive=").append(firstArchive).append('\n');
+                sb.append("firstArchiveLines=").append(firstArchiveLines).append('\n');
+            }
+            if (!gaps.isEmpty()) {
+                List<String> ranges = new ArrayList<>();
+                for (long[] gap : gaps) {
+                    ranges.add(gap[0] + "-" + gap[1]);
+                }
+                sb.append("gaps=").append(String.join(",", ranges)).append('\n');
+            }
+            if (tampered != null) {
+                sb.append("tampered=").append(tampered).append('\n');
+            }
+            String body = sb.toString();
+
+            AtomicFileWriter writer = new AtomicFileWriter(stateFile(logFile).toPath(), StandardCharsets.UTF_8);
+            try {
+                writer.write(body);
+                writer.write("mac=" + CHECKPOINT_KEY.mac(body) + "\n");
+                writer.commit();
+            } finally {
+                writer.abort();
+            }
+        }
+
+        // Number of events in gaps that start after the given event number
+        long gapLinesAfter(long after) {
+            long lines = 0;
+            for (long[] gap : gaps) {
+                if (gap[0] > after) lines += gap[1] - gap[0] + 1;
+            }
+            return lines;
+        }
+    }
+
+    // Live log opened together with the chain state that describes it, taken atomically with respect to writes and rotation
+    static class LiveSnapshot implements Closeable {
+        final ChainState state;
+        final long length;
+        final InputStream in;
+        final List<File> archives;
+
+        LiveSnapshot(ChainState state, long length, InputStream in, List<File> archives) {
+            this.state = state;
+            this.length = length;
+            this.in = in;
+            this.archives = archives;
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (in != null) in.close();
+        }
+    }
+
+    public static synchronized void append(File logFile, List<String> lines) throws IOException {
+        if (lines.isEmpty()) return;
+        ensureOpen(logFile);
+        // One event per physical line, so event numbering matches line numbering on disk
+        List<String> events = new ArrayList<>();
+        StringBuilder batch = new StringBuilder();
+        for (String line : lines) {
+            for (String event : line.split("\n", -1)) {
+                events.add(event);
+                batch.append(event).append('\n');
+            }
+        }
+        byte[] bytes = batch.toString().getBytes(StandardCharsets.UTF_8);
+        MessageDigest next = copy(running);
+        next.update(bytes);
+
+        // Record the batch before writing it, so a crash part way through can be told apart from an edit
+        state.pendingLines = state.liveLines + events.size();
+        state.pendingBytes = state.liveBytes + bytes.length;
+        state.pendingDigest = toHex(copy(next).digest());
+        state.write(logFile);
+        try {
+            Files.write(logFile.toPath(), bytes, StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+        } catch (IOException e) {
+            // The log may now end in a partial batch; reopening recovers or trims it from the pending record
+            running = null;
+            throw e;
+        }
+        running = next;
+        state.liveBytes = state.pendingBytes;
+        state.liveLines = state.pendingLines;
+        saveState(logFile);
+
+        long seq = state.sealedLines + state.liveLines - events.size();
+        for (String event : events) {
+            AuditEventBuffer.publish(++seq, event);
+        }
+    }
+
+    public static synchronized void rotate(File logFile, File archive) throws IOException {
+        ensureOpen(logFile);
+        // No REPLACE_EXISTING: two rotations within the same second must not overwrite a sealed archive
+        Files.move(logFile.toPath(), archive.toPath());
+
+        String digest = toHex(running.digest());
+        Files.write(archive.toPath(), checkpointLine(state.checkpoint, digest).getBytes(StandardCharsets.UTF_8), StandardOpenOption.APPEND);
+        if (state.firstArchive == null) {
+            // Anchors the chain, so deleting or unsealing the oldest archives is detected
+            state.firstArchive = archive.getName();
+            state.firstArchiveLines = state.sealedLines;
+        }
+        state.checkpoint = digest;
+        state.sealedLines += state.liveLines;
+        state.liveLines = 0;
+        state.liveBytes = 0;
+        running = newDigest(digest);
+        saveState(logFile);
+        LOGGER.info("Sealed " + archive.getName() + " with checkpoint " + digest);
+    }
+
+    static synchronized LiveSnapshot openLive(File logFile, boolean open) throws IOException {
+        if (open) ensureOpen(logFile);
+        ChainState snapshot = ChainState.read(logFile);
+        boolean exists = logFile.exists();
+        return new LiveSnapshot(snapshot, exists ? logFile.length() : 0,
+            exists ? Files.newInputStream(logFile.toPath()) : null,
+            AuditChainVerifier.listArchives(logFile));
+    }
+
+    static String checkpointLine(String prev, String digest) {
+        return CHECKPOINT_PREFIX + "prev=" + prev + " digest=" + digest + " mac=" + CHECKPOINT_KEY.mac(prev + ":" + digest) + "\n";
+    }
+
+    static File stateFile(File logFile) {
+        return new File(logFile.getPath() + ".chain");
+    }
+
+    static MessageDigest newDigest(String prev) {
+        try {
+            MessageDigest md = MessageDigest.getInstance("SHA-256");
+            md.update(prev.getBytes(StandardCharsets.UTF_8));
+            return md;
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 not available", e);
+        }
+    }
+
+    static String toHex(byte[] bytes) {
+        StringBuilder sb = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            sb.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+        }
+        return sb.toString();
+    }
+
+    // Hashes up to limit bytes of the stream into md and returns the number of bytes and lines read
+    static long[] hash(InputStream in, MessageDigest md, long limit) throws IOException {
+        byte[] buffer = new byte[1 << 16];
+        long bytes = 0;
+        long lines = 0;
+        int n;
+        while (bytes < limit && (n = in.read(buffer, 0, (int) Math.min(buffer.length, limit - bytes))) != -1) {
+            md.update(buffer, 0, n);
+            for (int i = 0; i < n; i++) {
+                if (buffer[i] == '\n') lines++;
+            }
+            bytes += n;
+        }
+        return new long[] {bytes, lines};
+    }
+
+    static MessageDigest copy(MessageDigest md) {
+        try {
+            return (MessageDigest) md.clone();
+        } catch (CloneNotSupportedException e) {
+            throw new IllegalStateException("SHA-256 digest cannot be cloned", e);
+        }
+    }
+
+    // Digest of everything hashed so far, without finishing the running digest
+    static String peek(MessageDigest md) {
+        return toHex(copy(md).digest());
+    }
+
+    private static void saveState(File logFile) throws IOException {
+        state.liveDigest = peek(running);
+        state.pendingLines = 0;
+        state.pendingBytes = 0;
+        state.pendingDigest = null;
+        state.write(logFile);
+    }
+
+    // Restores the running digest of the live segment after a restart or a log path change,
+    // checking the live log on disk against the persisted digest before extending it.
+    private static void ensureOpen(File logFile) throws IOException {
+        if (running != null && logFile.equals(currentLog)) return;
+
+        File parent = logFile.getAbsoluteFile().getParentFile();
+        if (parent != null) Files.createDirectories(parent.toPath());
+
+        ChainState persisted = ChainState.read(logFile);
+        ChainState opened = (persisted != null) ? persisted : new ChainState();
+        MessageDigest md = newDigest(opened.checkpoint);
+        long length = logFile.exists() ? logFile.length() : 0;
+        long[] read = {0, 0};
+        if (length > 0) {
+            try (InputStream in = Files.newInputStream(logFile.toPath())) {
+                read = hash(in, md, (persisted == null) ? length : Math.min(length, persisted.liveBytes));
+                if (persisted != null && persisted.signed && length > persisted.liveBytes && read[0] == persisted.liveBytes && peek(md).equals(persisted.liveDigest)) {
+                    MessageDigest committed = copy(md);
+                    long[] tail = hash(in, md, length - persisted.liveBytes);
+                    if (!recoverPending(logFile, persisted, length, peek(md), tail[1])) {
+                        // Extra bytes that are not the pending batch are handled like any other edit
+                        read = new long[] {length, read[1] + tail[1]};
+                    } else if (persisted.liveBytes != length) {
+                        md = committed;
+                    }
+                }
+            }
+        }
+
+        if (persisted == null) {
+            // First use of the chain for this log: adopt whatever the log already holds
+            opened.liveBytes = read[0];
+            opened.liveLines = read[1];
+            LOGGER.info("Starting hash chain for " + logFile.getAbsolutePath());
+        } else if (!persisted.signed || read[0] != persisted.liveBytes || !peek(md).equals(persisted.liveDigest)) {
+            String quarantine = logFile.getName() + ".tampered-" + ZonedDateTime.now().format(DateTimeFormatter.ofPattern("yyyyMMdd_HHmmss"));
+            if (logFile.exists()) {
+                Files.move(logFile.toPath(), new File(parent, quarantine).toPath());
+            } else {
+                quarantine = logFile.getName() + " (deleted)";
+            }
+            if (!persisted.signed) {
+                quarantine += " (state signature mismatch)";
+            }
+            LOGGER.severe("Role change log " + logFile.getAbsolutePath() + " does not match its hash chain state (" + read[0] + " bytes on disk, "
+                + persisted.liveBytes + " recorded). Recorded it as " + quarantine + " and continuing from checkpoint " + persisted.checkpoint);
+            opened.tampered = (persisted.tampered == null) ? quarantine : persisted.tampered + "," + quarantine;
+            if (opened.liveLines > 0) {
+                // The events of the set aside log keep their numbers but are in no archive
+                opened.gaps.add(new long[] {opened.sealedLines + 1, opened.sealedLines + opened.liveLines});
+            }
+            opened.sealedLines += opened.liveLines;
+            opened.liveLines = 0;
+            opened.liveBytes = 0;
+            md = newDigest(opened.checkpoint);
+        }
+
+        state = opened;
+        running = md;
+        currentLog = logFile;
+        saveState(logFile);
+        LOGGER.info("Hash chain opened for " + logFile.getAbsolutePath() + " from checkpoint " + state.checkpoint);
+    }
+
+    // The live log runs past its committed length. If the extra bytes are the pending batch, Jenkins
+    // stopped after writing it and it is kept; if they are shorter, the write was cut short and the
+    // partial batch is trimmed. Returns false when the extra bytes cannot come from the pending batch.
+    private static boolean recoverPending(File logFile, ChainState persisted, long length, String digest, long lines) throws IOException {
+        if (persisted.pendingDigest == null || length > persisted.pendingBytes) return false;
+        if (length == persisted.pendingBytes) {
+            if (!digest.equals(persisted.pendingDigest)) return false;
+            persisted.liveLines += lines;
+            persisted.liveBytes = length;
+            persisted.liveDigest = digest;
+            LOGGER.info("Recovered the last batch of " + logFile.getAbsolutePath() + ", written before Jenkins stopped");
+            return true;
+        }
+        try (FileChannel channel = FileChannel.open(logFile.toPath(), StandardOpenOption.WRITE)) {
+            channel.truncate(persisted.liveBytes);
+        }
+        LOGGER.warning("Trimmed a partial batch of " + (length - persisted.liveBytes) + " bytes from " + logFile.getAbsolutePath() + ", left by an interrupted write");
+        return true;
+    }
+}
@@ -0,0 +1,106 @@
+package com.rbac_audit.jenkins;
+
+import hudson.Extension;
+import hudson.model.Item;
+import hudson.model.ItemGroup;
+import hudson.model.listeners.ItemListener;
+import hudson.security.ACL;
+import hudson.security.ACLContext;
+import jenkins.model.Jenkins;
+
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Logger;
+
+/**
+ * Full names of all Jenkins items, kept up to date from item events so pattern impact
+ * analysis does not have to walk the whole item tree on every role change.
+ */
+@Extension
+public class ItemNameIndex extends ItemListener {
+    private static final Logger LOGGER = Logger.getLogger(ItemNameIndex.class.getName());
+    // Replaced as a whole on rebuild, so readers never see a half filled index; null until first built
+    private static volatile Set<String> names;
+
+    public static Set<String> getNames() {
+        Set<String> current = names;
+        if (current == null) {
+            synchronized (ItemNameIndex.class) {
+                current = names;
+                if (current == null) current = rebuild();
+            }
+        }
+        return Collections.unmodifiableSet(current);
+    }
+
+    // Item events wait for a running rebuild and are then applied to the new index
+    private static synchronized Set<String> rebuild() {
+        Set<String> rebuilt = ConcurrentHashMap.newKeySet();
+        // Index every item, not only the ones visible to the user whose save triggered this
+        try (ACLContext ignored = ACL.as2(ACL.SYSTEM2)) {
+            for (Item item : Jenkins.get().getAllItems()) {
+                rebuilt.add(item.getFullName());
+            }
+        }
+        names = rebuilt;
+        LOGGER.info("Indexed " + rebuilt.size() + " item names for pattern impact analysis");
+        return rebuilt;
+    }
+
+    // Adds an item and, for folders, everything inside it
+    private static synchronized void addWithDescendants(Item item) {
+        Set<String> current = names;
+        if (current == null) return;
+        current.add(item.getFullName());
+        if (item instanceof ItemGroup) {
+            try (ACLContext ignored = ACL.as2(ACL.SYSTEM2)) {
+                for (Item child : ((ItemGroup<?>) item).getAllItems()) {
+                    current.add(child.getFullName());
+                }
+            }
+        }
+    }
+
+    // Removes an item and, for folders, everything inside it
+    private static synchronized void removeWithDescendants(String fullName) {
+        Set<String> current = names;
+        if (current == null) return;
+        current.remove(fullName);
+        current.removeIf(name -> name.startsWith(fullName + "/"));
+    }
+
+    private static synchronized void rename(String oldFullName, String newFullName) {
+        Set<String> current = names;
+        if (current == null) return;
+        current.remove(oldFullName);
+        current.add(newFullName);
+    }
+
+    // Called at startup and again after Reload Configuration from Disk
+    @Override
+    public void onLoaded() {
+        rebuild();
+    }
+
+    @Override
+    public void onCreated(Item item) {
+        addWithDescendants(item);
+    }
+
+    @Override
+    public void onCopied(Item src, Item item) {
+        addWithDescendants(item);
+    }
+
+    @Override
+    public void onDeleted(Item item) {
+        removeWithDescendants(item.getFullName());
+    }
+
+    // Jenkins fires this for a moved or renamed folder and again for each item inside it
+    @Override
+    public void onLocationChanged(Item item, String oldFullName, String newFullName) {
+        rename(oldFullName, newFullName);
+    }
+}
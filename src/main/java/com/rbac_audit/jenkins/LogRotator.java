@@ -3,6 +3,7 @@ package com.rbac_audit.jenkins;
 import hudson.scheduler.CronTabList;
 import hudson.util.LogTaskListener;
 import jenkins.model.Jenkins;
+import jenkins.util.SystemProperties;
 
 
 import java.io.File;
@@ -23,6 +24,7 @@ import java.util.Date;
 import java.time.Duration;
 
 // AWS SDK
+import com.amazonaws.client.builder.AwsClientBuilder;
 import com.amazonaws.services.s3.AmazonS3;
 import com.amazonaws.services.s3.AmazonS3ClientBuilder;
 
@@ -52,6 +54,10 @@ public class LogRotator {
         }, 0, 1, TimeUnit.MINUTES);
     }
 
+    public static void rotateNow() throws IOException {
+        rotateLog(ZoneId.systemDefault());
+    }
+
     private static void rotateLog(ZoneId zoneId) throws IOException {
         RoleAuditConfig config = RoleAuditConfig.get();
         File logFile = new File(config.getLogFilePath());
@@ -68,7 +74,7 @@ public class LogRotator {
         String extension = (dotIndex == -1) ? "" : originalName.substring(dotIndex);
         File archive = new File(logFile.getParent(), baseName + "-" + timestamp + extension);
 
-        Files.move(logFile.toPath(), archive.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        AuditHashChain.rotate(logFile, archive);
         LOGGER.info("Log rotated: " + archive.getName());
 
         if (config.isUploadToS3()) {
@@ -80,9 +86,17 @@ public class LogRotator {
     private static void uploadToS3(File file, RoleAuditConfig config) {
         try {
             // LOGGER.info("connecting to aws");
-            AmazonS3 s3 = AmazonS3ClientBuilder.standard()
-                .withRegion(config.getS3Region())
-                .build();
+            AmazonS3ClientBuilder builder = AmazonS3ClientBuilder.standard();
+            String endpoint = SystemProperties.getString(LogRotator.class.getName() + ".s3Endpoint");
+            if (endpoint != null && !endpoint.isEmpty()) {
+                // S3 compatible storage such as MinIO
+                builder.withEndpointConfiguration(new AwsClientBuilder.EndpointConfiguration(endpoint, config.getS3Region()))
+                    .withPathStyleAccessEnabled(true)
+                    .disableChunkedEncoding();
+            } else {
+                builder.withRegion(config.getS3Region());
+            }
+            AmazonS3 s3 = builder.build();
             // LOGGER.info("Connected to aws");
             s3.putObject(config.getS3Bucket(), config.getS3BucketPath() + "/" + file.getName(), file);
             LOGGER.info("Uploaded rotated log " + file.getName() + " to S3 bucket " + config.getS3Bucket() + "/" + config.getS3BucketPath());
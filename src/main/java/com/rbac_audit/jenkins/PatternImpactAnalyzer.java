@@ -0,0 +1,170 @@
+package com.rbac_audit.jenkins;
+
+import jenkins.util.SystemProperties;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+import java.util.stream.Collectors;
+
+/**
+ * Works out which jobs gained or lost coverage when the pattern of a project role changes.
+ * Matching runs on a dedicated pool after the save has returned and is abandoned once it
+ * exceeds its time limit, so a backtracking pattern or a large item tree cannot hold up
+ * Jenkins saves.
+ */
+public class PatternImpactAnalyzer {
+    private static final Logger LOGGER = Logger.getLogger(PatternImpactAnalyzer.class.getName());
+    private static final int CACHE_SIZE = 256;
+    static final int MAX_LISTED_ITEMS = 50;
+    static final long MATCH_TIMEOUT_MILLIS = SystemProperties.getLong(PatternImpactAnalyzer.class.getName() + ".matchTimeoutMillis", 5000L);
+    private static final ForkJoinPool POOL = new ForkJoinPool(Math.max(1, Math.min(4, Runtime.getRuntime().availableProcessors())));
+
+    // Compiled patterns keyed by "role\u0000regex", least recently used entries are evicted first
+    private static final Map<String, Pattern> PATTERN_CACHE = new LinkedHashMap<String, Pattern>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Pattern> eldest) {
+            return size() > CACHE_SIZE;
+        }
+    };
+
+    static Pattern compile(String roleName, String regex) {
+        String key = roleName + "\u0000" + regex;
+        synchronized (PATTERN_CACHE) {
+            Pattern pattern = PATTERN_CACHE.get(key);
+            if (pattern == null) {
+                pattern = Pattern.compile(regex);
+                PATTERN_CACHE.put(key, pattern);
+            }
+            return pattern;
+        }
+    }
+
+    // Computes the impacts and appends them to the log once they are ready, in the order given
+    public static void appendLater(File logFile, List<Supplier<List<String>>> impacts) {
+        if (impacts.isEmpty()) return;
+        POOL.execute(() -> {
+            List<String> logs = new ArrayList<>();
+            for (Supplier<List<String>> impact : impacts) {
+                logs.addAll(impact.get());
+            }
+            try {
+                AuditHashChain.append(logFile, logs);
+                for (String line : logs) {
+                    LOGGER.info(line);
+                }
+            } catch (IOException e) {
+                LOGGER.log(Level.WARNING, "Failed to write pattern impact to " + logFile, e);
+            }
+        });
+    }
+
+    public static List<String> analyze(String label, String roleName, String oldRegex, String newRegex, Collection<String> itemNames, String prefix) {
+        return analyze(label, roleName, oldRegex, newRegex, itemNames, prefix, MATCH_TIMEOUT_MILLIS);
+    }
+
+    static List<String> analyze(String label, String roleName, String oldRegex, String newRegex, Collection<String> itemNames, String prefix, long timeoutMillis) {
+        List<String> logs = new ArrayList<>();
+        Pattern oldPattern;
+        Pattern newPattern;
+        try {
+            oldPattern = compile(roleName, oldRegex);
+            newPattern = compile(roleName, newRegex);
+        } catch (PatternSyntaxException e) {
+            logs.add(prefix + "Pattern impact for " + label + " role '" + roleName + "' not computed: invalid pattern: " + e.getDescription());
+            return logs;
+        }
+
+        // Each pattern is matched once per item; true collects gained jobs, false lost ones
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+        Map<Boolean, TreeSet<String>> changed;
+        try {
+            changed = POOL.submit(() -> itemNames.parallelStream()
+                .map(name -> new AbstractMap.SimpleImmutableEntry<>(name, coverageChange(oldPattern, newPattern, new DeadlineName(name, deadline))))
+                .filter(entry -> entry.getValue() != 0)
+                .collect(Collectors.partitioningBy(entry -> entry.getValue() > 0,
+                    Collectors.mapping(Map.Entry::getKey, Collectors.toCollection(TreeSet::new))))).join();
+        } catch (MatchTimeoutException e) {
+            logs.add(prefix + "Pattern impact for " + label + " role '" + roleName + "' not computed: matching took longer than " + timeoutMillis + " ms");
+            return logs;
+        }
+        Set<String> added = changed.get(true);
+        Set<String> removed = changed.get(false);
+
+        logs.add(prefix + "Pattern impact for " + label + " role '" + roleName + "': " + added.size() + " job(s) gained coverage, " + removed.size() + " job(s) lost coverage out of " + itemNames.size());
+        if (!added.isEmpty()) {
+            logs.add(prefix + "Jobs gained by " + label + " role '" + roleName + "': " + summarize(added));
+        }
+        if (!removed.isEmpty()) {
+            logs.add(prefix + "Jobs lost by " + label + " role '" + roleName + "': " + summarize(removed));
+        }
+        return logs;
+    }
+
+    // 1 if the item gained coverage, -1 if it lost coverage, 0 if unchanged
+    private static int coverageChange(Pattern oldPattern, Pattern newPattern, CharSequence name) {
+        boolean before = oldPattern.matcher(name).matches();
+        boolean after = newPattern.matcher(name).matches();
+        return (before == after) ? 0 : (after ? 1 : -1);
+    }
+
+    // Item name that fails matching once the deadline has passed, since a running match cannot be interrupted
+    private static final class DeadlineName implements CharSequence {
+        private final String name;
+        private final long deadline;
+
+        DeadlineName(String name, long deadline) {
+            this.name = name;
+            this.deadline = deadline;
+        }
+
+        @Override
+        public char charAt(int index) {
+            if (System.nanoTime() - deadline > 0) throw new MatchTimeoutException();
+            return name.charAt(index);
+        }
+
+        @Override
+        public int length() {
+            return name.length();
+        }
+
+        @Override
+        public CharSequence subSequence(int start, int end) {
+            return new DeadlineName(name.substring(start, end), deadline);
+        }
+
+        @Override
+        public String toString() {
+            return name;
+        }
+    }
+
+    static final class MatchTimeoutException extends RuntimeException {
+        MatchTimeoutException() {
+            super(null, null, false, false);
+        }
+    }
+
+    static String summarize(Set<String> names) {
+        if (names.size() <= MAX_LISTED_ITEMS) {
+            return names.toString();
+        }
+        List<String> shown = names.stream().limit(MAX_LISTED_ITEMS).collect(Collectors.toList());
+        return shown + " and " + (names.size() - MAX_LISTED_ITEMS) + " more";
+    }
+}
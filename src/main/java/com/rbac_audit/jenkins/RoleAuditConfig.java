@@ -10,6 +10,7 @@ import org.kohsuke.stapler.QueryParameter;
 import org.kohsuke.stapler.StaplerRequest;
 
 import java.io.File;
+import java.util.Objects;
 import java.time.ZoneId;
 import java.util.logging.Logger;
 import hudson.scheduler.CronTabList;
@@ -23,8 +24,7 @@ public class RoleAuditConfig extends GlobalConfiguration {
     private String s3BucketPath = "jenkins-logs";
     private String s3Region = "ap-south-1";
     private boolean loggingEnabled = true;
-    private static final String JENKINS_HOME = Jenkins.get().getRootDir().getAbsolutePath();
-    private String logFilePath = JENKINS_HOME + "/logs/role-changes.log";
+    private String logFilePath = Jenkins.get().getRootDir().getAbsolutePath() + "/logs/role-changes.log";
     public RoleAuditConfig() {
         load();
     }
@@ -87,7 +87,7 @@ public class RoleAuditConfig extends GlobalConfiguration {
     }
 
     public void setS3Bucket(String s3Bucket) {
-        if(!this.s3Bucket.equals(s3Bucket))
+        if(!Objects.equals(this.s3Bucket, s3Bucket))
             LOGGER.info("Setting role based strategy audit logs S3 bucket to: " + s3Bucket + " by user: " + getUserName());
         this.s3Bucket = s3Bucket;
     }
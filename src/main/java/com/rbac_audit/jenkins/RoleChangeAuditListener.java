@@ -17,6 +17,8 @@ import java.io.*;
 import java.nio.file.Files;
 import java.nio.file.StandardCopyOption;
 import java.util.*;
+import java.util.function.Supplier;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 import java.time.ZonedDateTime;
 import java.time.ZoneId;
@@ -26,41 +28,49 @@ import com.audit_log_rotator.jenkins.AuditLogRotator;
 @Extension
 public class RoleChangeAuditListener extends SaveableListener {
     private static final Logger LOGGER = Logger.getLogger(RoleChangeAuditListener.class.getName());
-    private static final String JENKINS_HOME = Jenkins.get().getRootDir().getAbsolutePath();
-    private static final File CACHE_FILE = new File(JENKINS_HOME+"/logs/jenkins-roles-prev.xml");
-    private static final File LOG_FILE = new File(RoleAuditConfig.get().getLogFilePath());
-    
+    // Saves diffed against the same cached copy must not interleave, or role changes are lost
+    private static final Object LOCK = new Object();
+
     @Override
     public void onChange(Saveable saveable, XmlFile file) {
         File configFile = file.getFile();
         if (!RoleAuditConfig.get().isLoggingEnabled()) return;
-        
-        if (!configFile.getAbsolutePath().contains(JENKINS_HOME+"/config.xml")) {
+
+        // Resolved per call so the paths follow the running Jenkins instance and the current configuration
+        String jenkinsHome = Jenkins.get().getRootDir().getAbsolutePath();
+        if (!configFile.getAbsolutePath().contains(jenkinsHome+"/config.xml")) {
             return;
         }
+        File cacheFile = new File(jenkinsHome+"/logs/jenkins-roles-prev.xml");
+        File logFile = new File(RoleAuditConfig.get().getLogFilePath());
+
+        synchronized (LOCK) {
+            try {
+                // If this is the first time, store the baseline
+                if (!cacheFile.exists()) {
+                    Files.createDirectories(cacheFile.getParentFile().toPath());
+                    Files.copy(configFile.toPath(), cacheFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+                    return;
+                }
 
-        try {
-            // If this is the first time, store the baseline
-            if (!CACHE_FILE.exists()) {
-                Files.copy(configFile.toPath(), CACHE_FILE.toPath(), StandardCopyOption.REPLACE_EXISTING);
-                return;
-            }
-
-            Map<String, Map<String, RoleInfo>> oldRoles = parseRoles(CACHE_FILE);
-            Map<String, Map<String, RoleInfo>> newRoles = parseRoles(configFile);
+                Map<String, Map<String, RoleInfo>> oldRoles = parseRoles(cacheFile);
+                Map<String, Map<String, RoleInfo>> newRoles = parseRoles(configFile);
 
-            Authentication auth = Jenkins.getAuthentication();
-            String username = (auth != null) ? auth.getName() : "UNKNOWN";
+                Authentication auth = Jenkins.getAuthentication();
+                String username = (auth != null) ? auth.getName() : "UNKNOWN";
 
-            List<String> logs = compareRoles(oldRoles, newRoles, username);
+                List<Supplier<List<String>>> impacts = new ArrayList<>();
+                List<String> logs = compareRoles(oldRoles, newRoles, username, impacts);
 
-            writeLogs(logs);
+                writeLogs(logFile, logs);
+                PatternImpactAnalyzer.appendLater(logFile, impacts);
 
-            // Update cache
-            Files.copy(configFile.toPath(), CACHE_FILE.toPath(), StandardCopyOption.REPLACE_EXISTING);
+                // Update cache
+                Files.copy(configFile.toPath(), cacheFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
 
-        } catch (Exception e) {
-            e.printStackTrace();
+            } catch (Exception e) {
+                LOGGER.log(Level.WARNING, "Failed to audit role changes in " + configFile, e);
+            }
         }
     }
 
@@ -108,7 +118,7 @@ public class RoleChangeAuditListener extends SaveableListener {
         return roleMap;
     }
 
-    private List<String> compareRoles(Map<String, Map<String, RoleInfo>> oldMap, Map<String, Map<String, RoleInfo>> newMap, String username) {
+    private List<String> compareRoles(Map<String, Map<String, RoleInfo>> oldMap, Map<String, Map<String, RoleInfo>> newMap, String username, List<Supplier<List<String>>> impacts) {
         List<String> logs = new ArrayList<>();
         ZoneId jenkinsZoneId = ZoneId.systemDefault();  // Gets the JVM/Jenkins timezone
         ZonedDateTime now = ZonedDateTime.now(jenkinsZoneId);
@@ -163,6 +173,10 @@ public class RoleChangeAuditListener extends SaveableListener {
 
                 if (!oldRole.pattern.equals(newRole.pattern)) {
                     logs.add("[" + timestamp + "] Pattern changed for " + label + " role '" + roleName + "' from '" + oldRole.pattern + "' to '" + newRole.pattern + "' by '" + username + "'");
+                    if (roleType.equals("projectRoles")) {
+                        // Matched against every item after the save returns, see PatternImpactAnalyzer.appendLater
+                        impacts.add(() -> PatternImpactAnalyzer.analyze(label, roleName, oldRole.pattern, newRole.pattern, ItemNameIndex.getNames(), "[" + timestamp + "] "));
+                    }
                 }
             }
         }
@@ -170,16 +184,12 @@ public class RoleChangeAuditListener extends SaveableListener {
         return logs;
     }
 
-    private void writeLogs(List<String> logs) {
-        LOGGER.info("writing logs to: " + LOG_FILE.getAbsolutePath());
+    private void writeLogs(File logFile, List<String> logs) throws IOException {
+        LOGGER.info("writing logs to: " + logFile.getAbsolutePath());
         if (logs.isEmpty()) return;
-        try (FileWriter writer = new FileWriter(LOG_FILE, true)) {
-            for (String line : logs) {
-                writer.write(line + "\n");
-                LOGGER.info(line);
-            }
-        } catch (IOException e) {
-            e.printStackTrace();
+        AuditHashChain.append(logFile, logs);
+        for (String line : logs) {
+            LOGGER.info(line);
         }
     }
     public static class PluginStartup {
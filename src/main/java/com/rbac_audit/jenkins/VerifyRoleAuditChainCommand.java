@@ -0,0 +1,30 @@
+package com.rbac_audit.jenkins;
+
+import hudson.Extension;
+import hudson.cli.CLICommand;
+import jenkins.model.Jenkins;
+import org.kohsuke.args4j.Argument;
+
+import java.io.File;
+
+@Extension
+public class VerifyRoleAuditChainCommand extends CLICommand {
+    @Argument(metaVar = "LOG_FILE", usage = "Role change log to verify. Defaults to the configured log file path.", required = false)
+    public String logFile;
+
+    @Override
+    public String getShortDescription() {
+        return "Verifies the hash chain of the role change audit log and its rotated archives.";
+    }
+
+    @Override
+    protected int run() throws Exception {
+        Jenkins.get().checkPermission(Jenkins.ADMINISTER);
+        String path = (logFile != null) ? logFile : RoleAuditConfig.get().getLogFilePath();
+        AuditChainVerifier.Report report = AuditChainVerifier.verify(new File(path));
+        for (String line : report.getLines()) {
+            stdout.println(line);
+        }
+        return report.isOk() ? 0 : 1;
+    }
+}
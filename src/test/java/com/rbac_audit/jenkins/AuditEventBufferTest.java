@@ -0,0 +1,67 @@
+package com.rbac_audit.jenkins;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class AuditEventBufferTest {
+    private long last;
+
+    @Test
+    public void readerSeesEventsAcrossTheWrapAround() throws Exception {
+        publish(AuditEventBuffer.CAPACITY + 10);
+
+        AuditEventBuffer.Batch batch = AuditEventBuffer.read(AuditEventBuffer.CAPACITY - 5, 10);
+        assertEquals(0, batch.skipped);
+        assertEquals(AuditEventBuffer.CAPACITY - 4, batch.firstSeq);
+        assertEquals(15, batch.lines.size());
+        assertEquals("event " + (AuditEventBuffer.CAPACITY - 4), batch.lines.get(0));
+        assertEquals("event " + (AuditEventBuffer.CAPACITY + 10), batch.lines.get(14));
+    }
+
+    @Test
+    public void laggingReaderIsToldHowManyEventsWereSkipped() throws Exception {
+        publish(AuditEventBuffer.CAPACITY + 100);
+
+        AuditEventBuffer.Batch batch = AuditEventBuffer.read(0, 10);
+        assertEquals(100, batch.skipped);
+        assertEquals(101, batch.firstSeq);
+        assertEquals(AuditEventBuffer.MAX_BATCH, batch.lines.size());
+        assertEquals("event 101", batch.lines.get(0));
+    }
+
+    @Test
+    public void renumberingRestartsTheRing() throws Exception {
+        publish(50);
+        last = 0;
+        publish(2);
+
+        assertEquals(1, AuditEventBuffer.getOldestSeq());
+        AuditEventBuffer.Batch batch = AuditEventBuffer.read(0, 10);
+        assertEquals(1, batch.firstSeq);
+        assertEquals(0, batch.skipped);
+        assertEquals(2, batch.lines.size());
+
+        // A reader still at the old numbering continues from the first event of the new one
+        batch = AuditEventBuffer.read(50, 10);
+        assertEquals(1, batch.firstSeq);
+        assertEquals("event 1", batch.lines.get(0));
+    }
+
+    @Test
+    public void readerAtTheNewestEventWaitsForTheTimeout() throws Exception {
+        publish(3);
+
+        AuditEventBuffer.Batch batch = AuditEventBuffer.read(3, 10);
+        assertEquals(0, batch.lines.size());
+        assertEquals(0, batch.skipped);
+    }
+
+    // Each test starts publishing from 1, which restarts the numbering the same way a log path change does
+    private void publish(long count) {
+        for (long i = 0; i < count; i++) {
+            last++;
+            AuditEventBuffer.publish(last, "event " + last);
+        }
+    }
+}
@@ -0,0 +1,162 @@
+package com.rbac_audit.jenkins;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.jvnet.hudson.test.JenkinsRule;
+
+import javax.servlet.ServletOutputStream;
+import javax.servlet.WriteListener;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.RandomAccessFile;
+import java.io.StringWriter;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.containsString;
+import static org.hamcrest.Matchers.not;
+
+public class AuditEventStreamActionTest {
+    @Rule
+    public JenkinsRule j = new JenkinsRule();
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    private File log;
+
+    @Before
+    public void setUp() throws Exception {
+        log = new File(tmp.newFolder("logs"), "role-changes.log");
+        AuditHashChain.append(log, Arrays.asList("one", "two", "three"));
+        AuditHashChain.rotate(log, new File(log.getParentFile(), "role-changes-20260101_000000.log"));
+        AuditHashChain.append(log, Arrays.asList("four", "five"));
+        AuditHashChain.rotate(log, new File(log.getParentFile(), "role-changes-20260102_000000.log"));
+        AuditHashChain.append(log, Arrays.asList("six", "seven"));
+    }
+
+    @Test
+    public void replayCrossesRotatedArchives() throws Exception {
+        StringWriter out = new StringWriter();
+        long last = AuditEventStreamAction.replay(new PrintWriter(out), log, 2);
+
+        assertEquals(7, last);
+        assertEquals("id: 3\ndata: three\n\n"
+            + "id: 4\ndata: four\n\n"
+            + "id: 5\ndata: five\n\n"
+            + "id: 6\ndata: six\n\n"
+            + "id: 7\ndata: seven\n\n", out.toString());
+    }
+
+    @Test
+    public void replayFromLiveLogSkipsArchives() throws Exception {
+        StringWriter out = new StringWriter();
+        long last = AuditEventStreamAction.replay(new PrintWriter(out), log, 6);
+
+        assertEquals(7, last);
+        assertEquals("id: 7\ndata: seven\n\n", out.toString());
+    }
+
+    @Test
+    public void replayReportsEventsOlderThanTheArchives() throws Exception {
+        new File(log.getParentFile(), "role-changes-20260101_000000.log").delete();
+        StringWriter out = new StringWriter();
+        AuditEventStreamAction.replay(new PrintWriter(out), log, 0);
+
+        assertThat(out.toString(), containsString("event: gap\ndata: events 1 to 3 are no longer in the rotated archives"));
+        assertThat(out.toString(), containsString("id: 4\ndata: four"));
+        assertThat(out.toString(), not(containsString("CHAIN-CHECKPOINT")));
+    }
+
+    @Test
+    public void replaySkipsEventsOfATamperedLiveLog() throws Exception {
+        try (RandomAccessFile raf = new RandomAccessFile(log, "rw")) {
+            raf.write('X');
+        }
+        // Writing to another log and coming back reopens the chain the same way a restart does
+        AuditHashChain.append(new File(tmp.newFolder("other"), "other.log"), Arrays.asList("other"));
+        AuditHashChain.append(log, Arrays.asList("eight"));
+        AuditHashChain.rotate(log, new File(log.getParentFile(), "role-changes-20260103_000000.log"));
+        AuditHashChain.append(log, Arrays.asList("nine"));
+
+        StringWriter out = new StringWriter();
+        long last = AuditEventStreamAction.replay(new PrintWriter(out), log, 4);
+
+        assertEquals(9, last);
+        assertEquals("id: 5\ndata: five\n\n"
+            + "event: gap\ndata: events 6 to 7 were in a live log that failed verification\n\n"
+            + "id: 8\ndata: eight\n\n"
+            + "id: 9\ndata: nine\n\n", out.toString());
+    }
+
+    @Test
+    public void subscribersBeyondTheCapAreRejected() throws Exception {
+        long heartbeat = AuditEventStreamAction.HEARTBEAT_MILLIS;
+        // Disconnected subscribers notice on the next keepalive and free their slots
+        AuditEventStreamAction.HEARTBEAT_MILLIS = 100;
+        List<HttpURLConnection> connections = new ArrayList<>();
+        try {
+            URL url = new URL(j.getURL(), "role-audit-events/");
+            for (int i = 0; i < AuditEventStreamAction.MAX_SUBSCRIBERS; i++) {
+                HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+                connections.add(connection);
+                assertEquals(200, connection.getResponseCode());
+            }
+            HttpURLConnection rejected = (HttpURLConnection) url.openConnection();
+            assertEquals(503, rejected.getResponseCode());
+        } finally {
+            for (HttpURLConnection connection : connections) {
+                connection.disconnect();
+            }
+            AuditEventStreamAction.HEARTBEAT_MILLIS = heartbeat;
+        }
+    }
+
+    @Test
+    public void stalledSubscriberFailsTheWriteAfterTheDeadline() throws Exception {
+        ServletOutputStream neverReady = new ServletOutputStream() {
+            @Override
+            public boolean isReady() {
+                return false;
+            }
+
+            @Override
+            public void setWriteListener(WriteListener listener) {
+            }
+
+            @Override
+            public void write(int b) {
+                fail("written although the subscriber was not ready");
+            }
+        };
+        AuditEventStreamAction.DeadlineOutputStream out = new AuditEventStreamAction.DeadlineOutputStream(neverReady, 50);
+
+        long start = System.nanoTime();
+        try {
+            out.write(new byte[] {'x'}, 0, 1);
+            fail("write to a stalled subscriber succeeded");
+        } catch (IOException e) {
+            assertThat(e.getMessage(), containsString("did not read for 50 ms"));
+        }
+        assertTrue(out.stalled);
+        assertTrue(System.nanoTime() - start >= 50_000_000L);
+    }
+
+    @Test
+    public void multiLineEventsKeepFraming() {
+        StringWriter out = new StringWriter();
+        AuditEventStreamAction.writeEvent(new PrintWriter(out), 9, "first\nsecond\r\nthird");
+
+        assertEquals("id: 9\ndata: first\ndata: second\ndata: third\n\n", out.toString());
+    }
+}
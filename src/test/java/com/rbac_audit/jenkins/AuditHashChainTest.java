@@ -0,0 +1,277 @@
+package com.rbac_audit.jenkins;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.jvnet.hudson.test.JenkinsRule;
+
+import java.io.File;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.containsString;
+import static org.hamcrest.Matchers.not;
+
+public class AuditHashChainTest {
+    // Checkpoint signatures use a confidential key, which needs a Jenkins instance
+    @Rule
+    public JenkinsRule j = new JenkinsRule();
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    private File log;
+
+    @Before
+    public void setUp() throws Exception {
+        log = new File(tmp.newFolder("logs"), "role-changes.log");
+    }
+
+    @Test
+    public void intactChainVerifies() throws Exception {
+        writeArchives(3);
+        AuditHashChain.append(log, Arrays.asList("live one", "live two"));
+
+        AuditChainVerifier.Report report = AuditChainVerifier.verify(log);
+        assertTrue(text(report), report.isOk());
+        assertThat(text(report), containsString("role-changes.log: OK 2 line(s)"));
+    }
+
+    @Test
+    public void tamperedArchiveIsDetected() throws Exception {
+        List<File> archives = writeArchives(3);
+        overwriteByte(archives.get(1), 1, 'X');
+
+        AuditChainVerifier.Report report = AuditChainVerifier.verify(log);
+        assertFalse(report.isOk());
+        assertThat(text(report), containsString(archives.get(1).getName() + ": content digest"));
+    }
+
+    @Test
+    public void deletedMiddleArchiveIsDetected() throws Exception {
+        List<File> archives = writeArchives(3);
+        Files.delete(archives.get(1).toPath());
+
+        AuditChainVerifier.Report report = AuditChainVerifier.verify(log);
+        assertFalse(report.isOk());
+        assertThat(text(report), containsString(archives.get(2).getName() + ": links to"));
+    }
+
+    @Test
+    public void deletedOldestArchiveIsDetected() throws Exception {
+        List<File> archives = writeArchives(3);
+        Files.delete(archives.get(0).toPath());
+
+        AuditChainVerifier.Report report = AuditChainVerifier.verify(log);
+        assertFalse(report.isOk());
+        assertThat(text(report), containsString(archives.get(1).getName() + ": oldest sealed archive links to"));
+        assertThat(text(report), containsString(archives.get(0).getName() + ": first archive of the hash chain is missing"));
+    }
+
+    @Test
+    public void strippedOldestCheckpointIsDetected() throws Exception {
+        List<File> archives = writeArchives(3);
+        String content = new String(Files.readAllBytes(archives.get(0).toPath()), StandardCharsets.UTF_8);
+        content = content.substring(0, content.indexOf(AuditHashChain.CHECKPOINT_PREFIX)).replace("role-0", "role-x");
+        Files.write(archives.get(0).toPath(), content.getBytes(StandardCharsets.UTF_8));
+
+        AuditChainVerifier.Report report = AuditChainVerifier.verify(log);
+        assertFalse(report.isOk());
+        assertThat(text(report), containsString(archives.get(0).getName() + ": checkpoint missing, the hash chain started at"));
+        assertThat(text(report), containsString(archives.get(1).getName() + ": cannot be linked"));
+    }
+
+    @Test
+    public void archivesOlderThanTheChainAreAccepted() throws Exception {
+        Files.write(archive(0).toPath(), "written before the hash chain\n".getBytes(StandardCharsets.UTF_8));
+        AuditHashChain.append(log, Arrays.asList("first chained event"));
+        AuditHashChain.rotate(log, archive(1));
+
+        AuditChainVerifier.Report report = AuditChainVerifier.verify(log);
+        assertTrue(text(report), report.isOk());
+        assertThat(text(report), containsString(archive(0).getName() + ": no checkpoint, archive predates the hash chain"));
+    }
+
+    @Test
+    public void reorderedArchivesAreDetected() throws Exception {
+        List<File> archives = writeArchives(3);
+        File swap = new File(log.getParentFile(), "swap");
+        Files.move(archives.get(0).toPath(), swap.toPath());
+        Files.move(archives.get(1).toPath(), archives.get(0).toPath());
+        Files.move(swap.toPath(), archives.get(1).toPath());
+
+        AuditChainVerifier.Report report = AuditChainVerifier.verify(log);
+        assertFalse(report.isOk());
+        assertThat(text(report), containsString("a segment is missing or out of order"));
+    }
+
+    @Test
+    public void truncatedNewestArchiveIsDetected() throws Exception {
+        List<File> archives = writeArchives(3);
+        File newest = archives.get(2);
+        try (RandomAccessFile raf = new RandomAccessFile(newest, "rw")) {
+            raf.setLength(raf.length() / 2);
+        }
+
+        AuditChainVerifier.Report report = AuditChainVerifier.verify(log);
+        assertFalse(report.isOk());
+        assertThat(text(report), containsString(newest.getName() + ": checkpoint missing after a sealed segment"));
+        assertThat(text(report), containsString("role-changes.log: cannot be linked"));
+    }
+
+    @Test
+    public void malformedCheckpointDoesNotHideLaterSegments() throws Exception {
+        List<File> archives = writeArchives(3);
+        String content = new String(Files.readAllBytes(archives.get(0).toPath()), StandardCharsets.UTF_8);
+        content = content.substring(0, content.indexOf(AuditHashChain.CHECKPOINT_PREFIX)) + AuditHashChain.CHECKPOINT_PREFIX + "garbage\n";
+        Files.write(archives.get(0).toPath(), content.getBytes(StandardCharsets.UTF_8));
+
+        String report = text(AuditChainVerifier.verify(log));
+        assertThat(report, containsString(archives.get(0).getName() + ": malformed checkpoint"));
+        assertThat(report, containsString(archives.get(1).getName() + ": cannot be linked"));
+        assertThat(report, not(containsString("predates the hash chain")));
+    }
+
+    @Test
+    public void editedLiveLogIsDetected() throws Exception {
+        writeArchives(1);
+        AuditHashChain.append(log, Arrays.asList("SID 'alice' added to global role 'admin'"));
+        overwriteByte(log, 5, 'X');
+
+        AuditChainVerifier.Report report = AuditChainVerifier.verify(log);
+        assertFalse(report.isOk());
+        assertThat(text(report), containsString("live log was modified"));
+    }
+
+    @Test
+    public void editedLiveLogIsNotSignedAfterRestart() throws Exception {
+        writeArchives(1);
+        AuditHashChain.append(log, Arrays.asList("SID 'alice' added to global role 'admin'"));
+        overwriteByte(log, 5, 'X');
+
+        reopen();
+        AuditHashChain.append(log, Arrays.asList("after restart"));
+        AuditHashChain.rotate(log, archive(9));
+
+        AuditChainVerifier.Report report = AuditChainVerifier.verify(log);
+        assertFalse(report.isOk());
+        assertThat(text(report), containsString("failed verification on startup"));
+        File[] quarantined = log.getParentFile().listFiles((d, name) -> name.startsWith("role-changes.log.tampered-"));
+        assertEquals(1, quarantined.length);
+        assertThat(new String(Files.readAllBytes(archive(9).toPath()), StandardCharsets.UTF_8), not(containsString("alice")));
+    }
+
+    @Test
+    public void recomputedLiveDigestIsDetected() throws Exception {
+        AuditHashChain.append(log, Arrays.asList("SID 'alice' added to global role 'admin'"));
+        overwriteByte(log, 5, 'X');
+
+        // Without the checkpoint key the edited state cannot be signed again
+        MessageDigest md = AuditHashChain.newDigest(AuditHashChain.GENESIS);
+        md.update(Files.readAllBytes(log.toPath()));
+        File stateFile = AuditHashChain.stateFile(log);
+        String state = new String(Files.readAllBytes(stateFile.toPath()), StandardCharsets.UTF_8);
+        state = state.replaceAll("liveDigest=\\w+", "liveDigest=" + AuditHashChain.toHex(md.digest()));
+        Files.write(stateFile.toPath(), state.getBytes(StandardCharsets.UTF_8));
+
+        AuditChainVerifier.Report report = AuditChainVerifier.verify(log);
+        assertFalse(report.isOk());
+        assertThat(text(report), containsString("signature of hash chain state role-changes.log.chain does not match"));
+
+        reopen();
+        AuditHashChain.append(log, Arrays.asList("after restart"));
+        assertThat(text(AuditChainVerifier.verify(log)), containsString("(state signature mismatch): live log failed verification on startup"));
+    }
+
+    @Test
+    public void batchWrittenBeforeCrashIsKept() throws Exception {
+        AuditHashChain.append(log, Arrays.asList("one"));
+        crashDuringAppend("two", Integer.MAX_VALUE);
+        AuditHashChain.append(log, Arrays.asList("three"));
+
+        AuditChainVerifier.Report report = AuditChainVerifier.verify(log);
+        assertTrue(text(report), report.isOk());
+        assertThat(text(report), containsString("role-changes.log: OK 3 line(s)"));
+        assertEquals(Arrays.asList("one", "two", "three"), Files.readAllLines(log.toPath(), StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void partialBatchIsTrimmedAfterCrash() throws Exception {
+        AuditHashChain.append(log, Arrays.asList("one"));
+        crashDuringAppend("two", 2);
+        assertThat(text(AuditChainVerifier.verify(log)), containsString("followed by a partial batch that is trimmed on the next write"));
+        AuditHashChain.append(log, Arrays.asList("three"));
+
+        AuditChainVerifier.Report report = AuditChainVerifier.verify(log);
+        assertTrue(text(report), report.isOk());
+        assertEquals(Arrays.asList("one", "three"), Files.readAllLines(log.toPath(), StandardCharsets.UTF_8));
+        assertEquals(0, log.getParentFile().listFiles((d, name) -> name.contains(".tampered-")).length);
+    }
+
+    @Test
+    public void archivesAreListedInRotationOrder() throws Exception {
+        List<File> archives = writeArchives(3);
+        Files.write(new File(log.getParentFile(), "role-changes.log.chain.bak").toPath(), new byte[0]);
+        Files.write(new File(log.getParentFile(), "role-changes-latest.log").toPath(), new byte[0]);
+
+        assertEquals(archives, AuditChainVerifier.listArchives(log));
+    }
+
+    private List<File> writeArchives(int count) throws Exception {
+        File[] archives = new File[count];
+        for (int i = 0; i < count; i++) {
+            AuditHashChain.append(log, Arrays.asList("New global role created: 'role-" + i + "'", "Permission added to role-" + i));
+            archives[i] = archive(i);
+            AuditHashChain.rotate(log, archives[i]);
+        }
+        return Arrays.asList(archives);
+    }
+
+    // Records a pending batch and writes only the given number of its bytes, as a crash during append would
+    private void crashDuringAppend(String line, int written) throws Exception {
+        AuditHashChain.ChainState state = AuditHashChain.ChainState.read(log);
+        byte[] bytes = (line + "\n").getBytes(StandardCharsets.UTF_8);
+        MessageDigest md = AuditHashChain.newDigest(state.checkpoint);
+        try (InputStream in = Files.newInputStream(log.toPath())) {
+            AuditHashChain.hash(in, md, state.liveBytes);
+        }
+        md.update(bytes);
+        state.pendingLines = state.liveLines + 1;
+        state.pendingBytes = state.liveBytes + bytes.length;
+        state.pendingDigest = AuditHashChain.toHex(md.digest());
+        state.write(log);
+        Files.write(log.toPath(), Arrays.copyOf(bytes, Math.min(written, bytes.length)), StandardOpenOption.APPEND);
+        reopen();
+    }
+
+    // Writing to another log and coming back reopens the chain the same way a restart does
+    private void reopen() throws Exception {
+        AuditHashChain.append(new File(tmp.newFolder(), "other.log"), Arrays.asList("other"));
+    }
+
+    private File archive(int i) {
+        return new File(log.getParentFile(), "role-changes-2026010" + i + "_000000.log");
+    }
+
+    private static void overwriteByte(File file, long offset, char c) throws Exception {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.seek(offset);
+            raf.write(c);
+        }
+    }
+
+    private static String text(AuditChainVerifier.Report report) {
+        return String.join("\n", report.getLines());
+    }
+}
@@ -0,0 +1,69 @@
+package com.rbac_audit.jenkins;
+
+import hudson.model.FreeStyleProject;
+import hudson.model.Item;
+import hudson.model.Items;
+import org.junit.Rule;
+import org.junit.Test;
+import org.jvnet.hudson.test.JenkinsRule;
+import org.jvnet.hudson.test.MockFolder;
+
+import java.util.Set;
+import java.util.TreeSet;
+
+import static org.junit.Assert.assertEquals;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.hasItem;
+import static org.hamcrest.Matchers.not;
+
+public class ItemNameIndexTest {
+    @Rule
+    public JenkinsRule j = new JenkinsRule();
+
+    @Test
+    public void indexFollowsCreateCopyRenameAndDelete() throws Exception {
+        FreeStyleProject job = j.createFreeStyleProject("job");
+        MockFolder folder = j.createFolder("folder");
+        folder.createProject(FreeStyleProject.class, "inner");
+        assertIndexMatchesItems();
+        assertThat(ItemNameIndex.getNames(), hasItem("folder/inner"));
+
+        j.jenkins.copy(job, "job-copy");
+        j.jenkins.copy(folder, "folder-copy");
+        assertIndexMatchesItems();
+
+        job.renameTo("job-renamed");
+        assertIndexMatchesItems();
+        assertThat(ItemNameIndex.getNames(), not(hasItem("job")));
+
+        // Moving a folder relocates everything inside it
+        MockFolder parent = j.createFolder("parent");
+        Items.move(folder, parent);
+        assertIndexMatchesItems();
+        assertThat(ItemNameIndex.getNames(), hasItem("parent/folder/inner"));
+        assertThat(ItemNameIndex.getNames(), not(hasItem("folder/inner")));
+
+        parent.delete();
+        assertIndexMatchesItems();
+        assertThat(ItemNameIndex.getNames(), not(hasItem("parent/folder/inner")));
+    }
+
+    @Test
+    public void reloadRebuildsTheIndex() throws Exception {
+        j.createFreeStyleProject("job");
+        j.createFolder("folder").createProject(FreeStyleProject.class, "inner");
+        ItemNameIndex.getNames();
+
+        j.jenkins.reload();
+        assertIndexMatchesItems();
+        assertThat(ItemNameIndex.getNames(), hasItem("folder/inner"));
+    }
+
+    private void assertIndexMatchesItems() {
+        Set<String> expected = new TreeSet<>();
+        for (Item item : j.jenkins.getAllItems()) {
+            expected.add(item.getFullName());
+        }
+        assertEquals(expected, new TreeSet<>(ItemNameIndex.getNames()));
+    }
+}
@@ -0,0 +1,87 @@
+package com.rbac_audit.jenkins;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+
+import static org.junit.Assert.assertEquals;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.containsString;
+import static org.hamcrest.Matchers.lessThan;
+import static org.hamcrest.Matchers.startsWith;
+
+public class PatternImpactAnalyzerTest {
+    private static final List<String> ITEMS = Arrays.asList("team-a/build", "team-a/deploy", "team-b/build", "team-b/deploy", "infra/backup");
+
+    @Test
+    public void reportsGainedAndLostJobs() {
+        List<String> logs = PatternImpactAnalyzer.analyze("project", "devs", "team-a/.*", "team-.*/build", ITEMS, "[ts] ");
+
+        assertEquals(3, logs.size());
+        assertEquals("[ts] Pattern impact for project role 'devs': 1 job(s) gained coverage, 1 job(s) lost coverage out of 5", logs.get(0));
+        assertEquals("[ts] Jobs gained by project role 'devs': [team-b/build]", logs.get(1));
+        assertEquals("[ts] Jobs lost by project role 'devs': [team-a/deploy]", logs.get(2));
+    }
+
+    @Test
+    public void onlyGainedJobsAreListedWhenPatternWidens() {
+        List<String> logs = PatternImpactAnalyzer.analyze("project", "devs", "team-a/build", "team-a/.*", ITEMS, "");
+
+        assertEquals(2, logs.size());
+        assertThat(logs.get(0), containsString("1 job(s) gained coverage, 0 job(s) lost coverage"));
+        assertEquals("Jobs gained by project role 'devs': [team-a/deploy]", logs.get(1));
+    }
+
+    @Test
+    public void onlyLostJobsAreListedWhenPatternNarrows() {
+        List<String> logs = PatternImpactAnalyzer.analyze("project", "devs", ".*", "infra/.*", ITEMS, "");
+
+        assertEquals(2, logs.size());
+        assertEquals("Jobs lost by project role 'devs': [team-a/build, team-a/deploy, team-b/build, team-b/deploy]", logs.get(1));
+    }
+
+    @Test
+    public void invalidPatternIsReportedInsteadOfMatched() {
+        List<String> logs = PatternImpactAnalyzer.analyze("project", "devs", "team-a/.*", "team-(a", ITEMS, "");
+
+        assertEquals(1, logs.size());
+        assertThat(logs.get(0), startsWith("Pattern impact for project role 'devs' not computed: invalid pattern"));
+    }
+
+    @Test
+    public void backtrackingPatternIsAbandonedAfterTheTimeLimit() {
+        List<String> items = Arrays.asList("aaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaa!", "team-a/build");
+        long start = System.nanoTime();
+        List<String> logs = PatternImpactAnalyzer.analyze("project", "devs", "team-a/.*", "(a+)+b", items, "", 100);
+
+        assertEquals(Arrays.asList("Pattern impact for project role 'devs' not computed: matching took longer than 100 ms"), logs);
+        assertThat(System.nanoTime() - start, lessThan(10_000_000_000L));
+    }
+
+    @Test
+    public void summaryListsEverythingUpToTheCap() {
+        Set<String> names = names(PatternImpactAnalyzer.MAX_LISTED_ITEMS);
+
+        assertEquals(names.toString(), PatternImpactAnalyzer.summarize(names));
+    }
+
+    @Test
+    public void summaryIsCappedWithCountOfTheRest() {
+        Set<String> names = names(PatternImpactAnalyzer.MAX_LISTED_ITEMS + 7);
+
+        String summary = PatternImpactAnalyzer.summarize(names);
+        assertThat(summary, startsWith("[job-000, job-001"));
+        assertThat(summary, containsString("job-049] and 7 more"));
+    }
+
+    private static Set<String> names(int count) {
+        Set<String> names = new TreeSet<>();
+        for (int i = 0; i < count; i++) {
+            names.add(String.format("job-%03d", i));
+        }
+        return names;
+    }
+}
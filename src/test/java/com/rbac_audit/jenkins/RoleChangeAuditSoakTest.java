@@ -0,0 +1,361 @@
+package com.rbac_audit.jenkins;
+
+import com.audit_log_rotator.jenkins.AuditLogRotator;
+import com.audit_log_rotator.jenkins.AuditLogRotatorConfig;
+import com.michelin.cio.hudson.plugins.rolestrategy.PermissionEntry;
+import com.michelin.cio.hudson.plugins.rolestrategy.Role;
+import com.michelin.cio.hudson.plugins.rolestrategy.RoleBasedAuthorizationStrategy;
+import com.michelin.cio.hudson.plugins.rolestrategy.RoleMap;
+import com.sun.net.httpserver.HttpServer;
+import com.synopsys.arc.jenkins.plugins.rolestrategy.RoleType;
+import hudson.ExtensionList;
+import hudson.XmlFile;
+import hudson.model.FreeStyleProject;
+import hudson.model.Saveable;
+import hudson.model.listeners.SaveableListener;
+import jenkins.model.Jenkins;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Rule;
+import org.junit.Test;
+import org.jvnet.hudson.test.JenkinsRule;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Logger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * Soak test for the save path. Concurrent Jenkins saves mix role changes with unrelated
+ * configuration and job saves while both rotators rotate and upload to a local S3 stand-in.
+ * The latency {@link RoleChangeAuditListener#onChange} adds to saves of the Jenkins
+ * {@code config.xml}, where role changes are stored, and the audit event rate are checked
+ * against budgets, and every role change must end up in the log or its archives.
+ *
+ * The test uses wall clock budgets, so it only runs when enabled with {@code -Dsoak=true}.
+ * Budgets and load can be tuned with system properties, e.g. {@code -Dsoak.p99BudgetMillis=100}:
+ * {@code soak.p50BudgetMillis}, {@code soak.p99BudgetMillis}, {@code soak.p999BudgetMillis},
+ * {@code soak.minEventsPerSecond}, {@code soak.roleChanges}, {@code soak.threads} and
+ * {@code soak.durationSeconds}.
+ */
+public class RoleChangeAuditSoakTest {
+    private static final Logger LOGGER = Logger.getLogger(RoleChangeAuditSoakTest.class.getName());
+    private static final String BUCKET = "soak";
+    private static final int JOBS = 20;
+    private static final int MIN_ROTATIONS = 3;
+
+    @Rule
+    public JenkinsRule j = new JenkinsRule();
+
+    private HttpServer s3;
+    private final Map<String, byte[]> uploads = new ConcurrentHashMap<>();
+    private final List<String> properties = Arrays.asList(
+        LogRotator.class.getName() + ".s3Endpoint", AuditLogRotator.class.getName() + ".s3Endpoint", "aws.accessKeyId", "aws.secretKey");
+
+    @BeforeClass
+    public static void soakEnabled() {
+        assumeTrue("Soak test is enabled with -Dsoak=true", Boolean.getBoolean("soak"));
+    }
+
+    @Before
+    public void startS3() throws IOException {
+        // Accepts path style PUT Object requests and answers with the ETag the AWS SDK checks
+        s3 = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        s3.createContext("/", exchange -> {
+            byte[] body = exchange.getRequestBody().readAllBytes();
+            if ("PUT".equals(exchange.getRequestMethod())) {
+                uploads.put(exchange.getRequestURI().getPath().substring(BUCKET.length() + 2), body);
+                exchange.getResponseHeaders().add("ETag", "\"" + md5(body) + "\"");
+            }
+            exchange.sendResponseHeaders(200, -1);
+            exchange.close();
+        });
+        s3.setExecutor(Executors.newCachedThreadPool());
+        s3.start();
+
+        String endpoint = "http://" + s3.getAddress().getHostString() + ":" + s3.getAddress().getPort();
+        System.setProperty(properties.get(0), endpoint);
+        System.setProperty(properties.get(1), endpoint);
+        System.setProperty(properties.get(2), "soak");
+        System.setProperty(properties.get(3), "soak");
+    }
+
+    @After
+    public void stopS3() {
+        for (String property : properties) {
+            System.clearProperty(property);
+        }
+        if (s3 != null) {
+            s3.stop(0);
+        }
+    }
+
+    @Test
+    public void concurrentSavesStayWithinBudgetAndLoseNoRoleChanges() throws Exception {
+        double p50Budget = budget("p50BudgetMillis", 50);
+        double p99Budget = budget("p99BudgetMillis", 250);
+        double p999Budget = budget("p999BudgetMillis", 1000);
+        double minEventsPerSecond = budget("minEventsPerSecond", 20);
+        int roleChanges = Integer.getInteger("soak.roleChanges", 200);
+        int threads = Integer.getInteger("soak.threads", 8);
+        long durationMillis = TimeUnit.SECONDS.toMillis(Integer.getInteger("soak.durationSeconds", 6));
+
+        RoleAuditConfig config = RoleAuditConfig.get();
+        config.setUploadToS3(true);
+        config.setS3Bucket(BUCKET);
+        config.setS3BucketPath("role");
+        config.setS3Region("us-east-1");
+        AuditLogRotatorConfig auditConfig = AuditLogRotatorConfig.get();
+        auditConfig.setLRUploadToS3(true);
+        auditConfig.setLRS3Bucket(BUCKET);
+        auditConfig.setLRS3BucketPath("audit");
+        auditConfig.setLRS3Region("us-east-1");
+        File logFile = new File(config.getLogFilePath());
+        File auditLog = new File(auditConfig.getLRLogFilePath());
+
+        RoleBasedAuthorizationStrategy strategy = new RoleBasedAuthorizationStrategy();
+        j.jenkins.setAuthorizationStrategy(strategy);
+        j.jenkins.save();
+        j.jenkins.save();
+        RoleMap globalRoles = strategy.getRoleMap(RoleType.Global);
+        List<FreeStyleProject> jobs = new ArrayList<>();
+        for (int i = 0; i < JOBS; i++) {
+            jobs.add(j.createFreeStyleProject("soak-job-" + i));
+        }
+        long eventsBefore = eventLines(logFile).size();
+
+        TimingListener timing = installTimingListener();
+        AtomicInteger nextRoleChange = new AtomicInteger();
+        AtomicInteger rotations = new AtomicInteger();
+        AtomicBoolean done = new AtomicBoolean();
+        Queue<Throwable> failures = new ConcurrentLinkedQueue<>();
+
+        Thread rotator = new Thread(() -> {
+            try {
+                while (!done.get() || rotations.get() < MIN_ROTATIONS) {
+                    // Archive names have second resolution
+                    Thread.sleep(1100);
+                    LogRotator.rotateNow();
+                    Files.write(auditLog.toPath(), ("audit " + rotations.get() + "\n").getBytes(StandardCharsets.UTF_8),
+                        StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+                    AuditLogRotator.rotateNow();
+                    rotations.incrementAndGet();
+                }
+            } catch (Throwable t) {
+                failures.add(t);
+            }
+        }, "soak-rotator");
+
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        long start = System.nanoTime();
+        rotator.start();
+        List<Future<?>> workers = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            Random random = new Random(t);
+            workers.add(pool.submit(() -> {
+                long elapsed;
+                while ((elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start)) < durationMillis || nextRoleChange.get() < roleChanges) {
+                    // Role changes are spread evenly over the run so they overlap rotations
+                    int due = (int) Math.min(roleChanges, roleChanges * elapsed / durationMillis + 1);
+                    int i = nextRoleChange.get();
+                    if (i < due && nextRoleChange.compareAndSet(i, i + 1)) {
+                        applyRoleChange(timing, globalRoles, i);
+                    } else if (random.nextBoolean()) {
+                        j.jenkins.setSystemMessage("soak " + random.nextInt());
+                    } else {
+                        jobs.get(random.nextInt(JOBS)).save();
+                    }
+                }
+                return null;
+            }));
+        }
+        for (Future<?> worker : workers) {
+            worker.get();
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+        done.set(true);
+        rotator.join();
+        pool.shutdown();
+        ExtensionList.lookup(SaveableListener.class).remove(timing);
+        ExtensionList.lookup(SaveableListener.class).add(timing.delegate);
+        if (!failures.isEmpty()) {
+            throw new AssertionError("Rotation failed during the soak", failures.peek());
+        }
+
+        List<String> events = eventLines(logFile);
+        double eventsPerSecond = (events.size() - eventsBefore) / seconds;
+        long[] samples = sorted(timing.configSamples);
+        long[] roleSamples = sorted(timing.roleChangeSamples);
+        double p50 = percentileMillis(samples, 50);
+        double p99 = percentileMillis(samples, 99);
+        double p999 = percentileMillis(samples, 99.9);
+        LOGGER.info(String.format("Soak: %d config.xml saves, %d role changes, %d rotations, onChange p50 %.3f ms, p99 %.3f ms, p999 %.3f ms, "
+                + "role change saves p50 %.3f ms, p99 %.3f ms, %.1f audit events/s",
+            samples.length, roleChanges, rotations.get(), p50, p99, p999, percentileMillis(roleSamples, 50), percentileMillis(roleSamples, 99), eventsPerSecond));
+
+        String text = String.join("\n", events);
+        List<String> missing = new ArrayList<>();
+        for (int i = 0; i < roleChanges; i++) {
+            if (!text.contains("New global role created: 'soak-role-" + i + "'")) {
+                missing.add("creation of soak-role-" + i);
+            }
+            if (!text.contains("SID 'soak-user-" + i + "' added to global role 'soak-role-" + i + "'")) {
+                missing.add("assignment of soak-user-" + i);
+            }
+        }
+        assertEquals("Role changes missing from the log and its archives: " + missing, Collections.emptyList(), missing);
+
+        AuditChainVerifier.Report report = AuditChainVerifier.verify(logFile);
+        assertTrue(String.join("\n", report.getLines()), report.isOk());
+        for (File archive : AuditChainVerifier.listArchives(logFile)) {
+            assertTrue("Archive not uploaded: " + archive.getName(), uploads.containsKey("role/" + archive.getName()));
+        }
+        assertTrue("No audit log archive uploaded: " + uploads.keySet(), uploads.keySet().stream().anyMatch(key -> key.startsWith("audit/")));
+
+        List<String> violations = new ArrayList<>();
+        checkBudget(violations, "p50", p50, p50Budget);
+        checkBudget(violations, "p99", p99, p99Budget);
+        checkBudget(violations, "p999", p999, p999Budget);
+        if (eventsPerSecond < minEventsPerSecond) {
+            violations.add(String.format("%.1f audit events/s is below budget %.1f", eventsPerSecond, minEventsPerSecond));
+        }
+        if (!violations.isEmpty()) {
+            fail("Save path budgets exceeded: " + violations);
+        }
+    }
+
+    // Serialized with Jenkins.save(), which holds the Jenkins monitor while writing config.xml
+    private void applyRoleChange(TimingListener timing, RoleMap globalRoles, int i) throws IOException {
+        Role role = new Role("soak-role-" + i, new HashSet<>(Collections.singletonList(Jenkins.READ)));
+        timing.roleChange.set(true);
+        try {
+            synchronized (j.jenkins) {
+                globalRoles.addRole(role);
+                j.jenkins.save();
+            }
+            synchronized (j.jenkins) {
+                globalRoles.assignRole(role, PermissionEntry.user("soak-user-" + i));
+                j.jenkins.save();
+            }
+        } finally {
+            timing.roleChange.remove();
+        }
+    }
+
+    private static TimingListener installTimingListener() {
+        ExtensionList<SaveableListener> listeners = ExtensionList.lookup(SaveableListener.class);
+        RoleChangeAuditListener audit = listeners.get(RoleChangeAuditListener.class);
+        TimingListener timing = new TimingListener(audit);
+        listeners.remove(audit);
+        listeners.add(timing);
+        return timing;
+    }
+
+    // Times the audit listener in place of the registered one. Only saves of the Jenkins config.xml are
+    // sampled, since other saves return after the path check; role change saves are also kept apart.
+    static class TimingListener extends SaveableListener {
+        final SaveableListener delegate;
+        final Queue<Long> configSamples = new ConcurrentLinkedQueue<>();
+        final Queue<Long> roleChangeSamples = new ConcurrentLinkedQueue<>();
+        final ThreadLocal<Boolean> roleChange = new ThreadLocal<>();
+
+        TimingListener(SaveableListener delegate) {
+            this.delegate = delegate;
+        }
+
+        @Override
+        public void onChange(Saveable o, XmlFile file) {
+            if (!(o instanceof Jenkins)) {
+                delegate.onChange(o, file);
+                return;
+            }
+            long start = System.nanoTime();
+            try {
+                delegate.onChange(o, file);
+            } finally {
+                long elapsed = System.nanoTime() - start;
+                configSamples.add(elapsed);
+                if (Boolean.TRUE.equals(roleChange.get())) {
+                    roleChangeSamples.add(elapsed);
+                }
+            }
+        }
+    }
+
+    // Event lines of the role change log and all of its archives, without checkpoints
+    private static List<String> eventLines(File logFile) throws IOException {
+        List<String> lines = new ArrayList<>();
+        List<File> files = new ArrayList<>(AuditChainVerifier.listArchives(logFile));
+        files.add(logFile);
+        for (File file : files) {
+            if (!file.exists()) continue;
+            for (String line : Files.readAllLines(file.toPath(), StandardCharsets.UTF_8)) {
+                if (!line.startsWith(AuditHashChain.CHECKPOINT_PREFIX)) {
+                    lines.add(line);
+                }
+            }
+        }
+        return lines;
+    }
+
+    private static long[] sorted(Queue<Long> samples) {
+        return samples.stream().mapToLong(Long::longValue).sorted().toArray();
+    }
+
+    private static double percentileMillis(long[] sorted, double percentile) {
+        if (sorted.length == 0) return 0;
+        int index = (int) Math.ceil(sorted.length * percentile / 100.0) - 1;
+        return sorted[Math.max(0, Math.min(index, sorted.length - 1))] / 1e6;
+    }
+
+    private static void checkBudget(List<String> violations, String name, double actual, double budget) {
+        if (actual > budget) {
+            violations.add(String.format("%s %.3f ms exceeds budget %.3f ms", name, actual, budget));
+        }
+    }
+
+    private static double budget(String name, double defaultValue) {
+        String value = System.getProperty("soak." + name);
+        if (value == null || value.trim().isEmpty()) return defaultValue;
+        try {
+            return Double.parseDouble(value.trim());
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid budget soak." + name + "=" + value, e);
+        }
+    }
+
+    private static String md5(byte[] body) {
+        try {
+            return AuditHashChain.toHex(MessageDigest.getInstance("MD5").digest(body));
+        } catch (Exception e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}